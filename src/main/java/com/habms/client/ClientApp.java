@@ -165,6 +165,14 @@ public class ClientApp {
             int r = fd.showDialog(); if (r!=FormDialog.OK) return;
             String q = qField.getText().trim(); if (!q.isEmpty()) doSearchDept(q);
         });
+        JButton searchAll = new JButton("搜索医生");
+        searchAll.addActionListener(e -> {
+            JTextField qField = new JTextField();
+            JPanel pQ = FormFactory.singleFieldPanel("姓名/科室/简介关键字", qField);
+            FormDialog fd = new FormDialog(frame, "搜索医生", pQ);
+            int r = fd.showDialog(); if (r!=FormDialog.OK) return;
+            String q = qField.getText().trim(); if (!q.isEmpty()) doSearch(q);
+        });
 
         // Admin buttons (initially disabled)
         addDoctorBtn = new JButton("添加医生");
@@ -290,6 +298,7 @@ public class ClientApp {
         addActionButton(buttonPanel, cancel);
         addActionButton(buttonPanel, searchName);
         addActionButton(buttonPanel, searchDept);
+        addActionButton(buttonPanel, searchAll);
         addActionButton(buttonPanel, addDoctorBtn);
         addActionButton(buttonPanel, updateDoctorBtn);
         addActionButton(buttonPanel, addScheduleBtn);
@@ -383,6 +392,15 @@ public class ClientApp {
         } catch (Exception ex) { addMessage("错误: " + ex.getMessage()); }
     }
 
+    private void doSearch(String q) {
+        try {
+            Map resp = controller.search(q, 50);
+            if ("OK".equals(resp.get("status"))) {
+                if (resp.containsKey("data")) showTable((List)resp.get("data"));
+            } else addMessage("ERROR: " + resp.get("message"));
+        } catch (Exception ex) { addMessage("错误: " + ex.getMessage()); }
+    }
+
     private void doAddDoctor(String name, String dept, String info) {
         try {
             Map resp = controller.addDoctor(name, dept, info);
@@ -567,43 +585,139 @@ public class ClientApp {
         if (res != JFileChooser.APPROVE_OPTION) return;
         File f = chooser.getSelectedFile();
         try {
-            byte[] data = java.nio.file.Files.readAllBytes(f.toPath());
-            String b64 = java.util.Base64.getEncoder().encodeToString(data);
-            Map resp = controller.importDoctorsXls(b64);
-            addMessage(String.valueOf(resp));
+            awaitJob(controller.submitImportJob(f.toPath()), "导入", jobId -> addMessage(String.valueOf(controller.jobResult(jobId))));
         } catch (Exception ex) { addMessage("错误: " + ex.getMessage()); }
     }
 
     private void doExportAppointmentsXls() {
+        JTextField fromF = new JTextField();
+        JTextField toF = new JTextField();
+        JTextField deptF = new JTextField();
+        JPanel panel = new JPanel(new GridLayout(0,2,6,6));
+        panel.add(new JLabel("起始日期 (yyyy-MM-dd，可留空)")); panel.add(fromF);
+        panel.add(new JLabel("结束日期 (含当天，可留空)")); panel.add(toF);
+        panel.add(new JLabel("科室 (可留空)")); panel.add(deptF);
+        String from, to;
+        while (true) {
+            FormDialog fd = new FormDialog(frame, "导出预约", panel);
+            if (fd.showDialog() != FormDialog.OK) return;
+            fromF.setBorder(UIManager.getLookAndFeel().getDefaults().getBorder("TextField.border"));
+            toF.setBorder(UIManager.getLookAndFeel().getDefaults().getBorder("TextField.border"));
+            boolean ok = true;
+            from = null; to = null;
+            try {
+                if (!fromF.getText().trim().isEmpty()) from = java.time.LocalDate.parse(fromF.getText().trim()).atStartOfDay().format(fmt);
+            } catch (Exception ex) { fromF.setBorder(new LineBorder(Color.RED,1)); ok=false; }
+            try {
+                // the server's upper bound is exclusive, so export up to the start of the next day
+                if (!toF.getText().trim().isEmpty()) to = java.time.LocalDate.parse(toF.getText().trim()).plusDays(1).atStartOfDay().format(fmt);
+            } catch (Exception ex) { toF.setBorder(new LineBorder(Color.RED,1)); ok=false; }
+            if (!ok) { addMessage("请修正红色字段后重试（保留输入）。"); continue; }
+            break;
+        }
+        String dept = deptF.getText().trim().isEmpty() ? null : deptF.getText().trim();
+        File target = chooseSaveFile("appointments.xlsx");
+        if (target == null) return;
+        Map<String, Object> job = new java.util.HashMap<>();
+        job.put("action", "export_appointments_xls");
+        if (from != null) job.put("from", from);
+        if (to != null) job.put("to", to);
+        if (dept != null) job.put("dept", dept);
         try {
-            Map resp = controller.exportAppointmentsXls();
-            if (!"OK".equals(resp.get("status"))) { addMessage("ERROR: " + resp.get("message")); return; }
-            String b64 = (String) resp.get("content");
-            byte[] data = java.util.Base64.getDecoder().decode(b64);
-            JFileChooser chooser = new JFileChooser();
-            chooser.setSelectedFile(new File((String)resp.getOrDefault("filename","appointments.xlsx")));
-            int res = chooser.showSaveDialog(frame);
-            if (res != JFileChooser.APPROVE_OPTION) return;
-            java.nio.file.Files.write(chooser.getSelectedFile().toPath(), data);
-            addMessage("已保存: " + chooser.getSelectedFile().getAbsolutePath());
+            awaitJob(controller.submitJob(job), "导出预约", jobId -> saveJobResult(jobId, target));
         } catch (Exception ex) { addMessage("错误: " + ex.getMessage()); }
     }
 
     private void doGenerateReportPdf() {
+        String[] types = {"summary", "doctor", "dept", "daily"};
+        JComboBox<String> typeF = new JComboBox<>(new String[]{"汇总", "单个医生", "单个科室", "每日统计"});
+        JTextField fromF = new JTextField();
+        JTextField toF = new JTextField();
+        JTextField doctorF = new JTextField();
+        JTextField deptF = new JTextField();
+        JPanel panel = new JPanel(new GridLayout(0,2,6,6));
+        panel.add(new JLabel("报告类型")); panel.add(typeF);
+        panel.add(new JLabel("起始日期 (yyyy-MM-dd，每日统计必填)")); panel.add(fromF);
+        panel.add(new JLabel("结束日期 (含当天，每日统计必填)")); panel.add(toF);
+        panel.add(new JLabel("医生ID (单个医生)")); panel.add(doctorF);
+        panel.add(new JLabel("科室 (单个科室)")); panel.add(deptF);
+        Map<String, Object> job = new java.util.HashMap<>();
+        while (true) {
+            FormDialog fd = new FormDialog(frame, "生成报告", panel);
+            if (fd.showDialog() != FormDialog.OK) return;
+            for (JTextField f : new JTextField[]{fromF, toF, doctorF}) f.setBorder(UIManager.getLookAndFeel().getDefaults().getBorder("TextField.border"));
+            job.clear();
+            job.put("action", "generate_report_pdf");
+            job.put("type", types[typeF.getSelectedIndex()]);
+            boolean ok = true;
+            try {
+                if (!fromF.getText().trim().isEmpty()) job.put("from", java.time.LocalDate.parse(fromF.getText().trim()).atStartOfDay().format(fmt));
+            } catch (Exception ex) { fromF.setBorder(new LineBorder(Color.RED,1)); ok=false; }
+            try {
+                if (!toF.getText().trim().isEmpty()) job.put("to", java.time.LocalDate.parse(toF.getText().trim()).plusDays(1).atStartOfDay().format(fmt));
+            } catch (Exception ex) { toF.setBorder(new LineBorder(Color.RED,1)); ok=false; }
+            try {
+                if (!doctorF.getText().trim().isEmpty()) job.put("doctorId", Integer.parseInt(doctorF.getText().trim()));
+            } catch (Exception ex) { doctorF.setBorder(new LineBorder(Color.RED,1)); ok=false; }
+            if (!deptF.getText().trim().isEmpty()) job.put("dept", deptF.getText().trim());
+            if (!ok) { addMessage("请修正红色字段后重试（保留输入）。"); continue; }
+            break;
+        }
+        File target = chooseSaveFile("report.pdf");
+        if (target == null) return;
         try {
-            Map resp = controller.generateReportPdf();
-            if (!"OK".equals(resp.get("status"))) { addMessage("ERROR: " + resp.get("message")); return; }
-            String b64 = (String) resp.get("content");
-            byte[] data = java.util.Base64.getDecoder().decode(b64);
-            JFileChooser chooser = new JFileChooser();
-            chooser.setSelectedFile(new File((String)resp.getOrDefault("filename","report.pdf")));
-            int res = chooser.showSaveDialog(frame);
-            if (res != JFileChooser.APPROVE_OPTION) return;
-            java.nio.file.Files.write(chooser.getSelectedFile().toPath(), data);
-            addMessage("已保存: " + chooser.getSelectedFile().getAbsolutePath());
+            awaitJob(controller.submitJob(job), "生成报告", jobId -> saveJobResult(jobId, target));
         } catch (Exception ex) { addMessage("错误: " + ex.getMessage()); }
     }
 
+    private interface JobDone {
+        void done(String jobId) throws IOException;
+    }
+
+    // the import, export and report run as server jobs; poll once a second so the window stays responsive
+    private void awaitJob(Map submitted, String label, JobDone onDone) {
+        if (!"OK".equals(submitted.get("status"))) { addMessage("ERROR: " + submitted.get("message")); return; }
+        String jobId = String.valueOf(submitted.get("jobId"));
+        addMessage(label + "已在后台开始（任务 " + jobId + "）");
+        int[] polls = {0};
+        javax.swing.Timer timer = new javax.swing.Timer(1000, null);
+        timer.addActionListener(e -> {
+            try {
+                Map resp = controller.jobStatus(jobId);
+                if (!"OK".equals(resp.get("status"))) { timer.stop(); addMessage("ERROR: " + resp.get("message")); return; }
+                Map data = (Map) resp.get("data");
+                Object state = data.get("state");
+                if ("DONE".equals(state)) {
+                    timer.stop();
+                    onDone.done(jobId);
+                } else if ("FAILED".equals(state)) {
+                    timer.stop();
+                    addMessage(label + "失败: " + data.get("error"));
+                } else if (++polls[0] % 5 == 0) {
+                    addMessage(label + "进行中，已处理 " + data.get("done") + " 行");
+                }
+            } catch (Exception ex) {
+                timer.stop();
+                addMessage("错误: " + ex.getMessage());
+            }
+        });
+        timer.start();
+    }
+
+    private void saveJobResult(String jobId, File target) throws IOException {
+        Map<String, Object> resp = controller.jobResult(jobId, target.toPath());
+        if (!"OK".equals(resp.get("status"))) { addMessage("ERROR: " + resp.get("message")); return; }
+        addMessage("已保存: " + target.getAbsolutePath());
+    }
+
+    // the file is streamed straight into the chosen location, so ask before sending the request
+    private File chooseSaveFile(String defaultName) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(defaultName));
+        int res = chooser.showSaveDialog(frame);
+        return res == JFileChooser.APPROVE_OPTION ? chooser.getSelectedFile() : null;
+    }
+
     private void showTable(List<Map> data) {
         if (data == null || data.isEmpty()) {
             addMessage("无数据");
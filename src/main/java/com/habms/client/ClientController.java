@@ -1,23 +1,28 @@
 package com.habms.client;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Controller that builds requests and delegates transport to {@link ClientService}.
  */
 public class ClientController {
+    private static final int PAGE_SIZE = 500;
     private final ClientService service;
 
     public ClientController(ClientService service) {
         this.service = service;
     }
 
-    public Map login(String username, String password) throws IOException {
+    public Map<String, Object> login(String username, String password) throws IOException {
         return service.send(Map.of("action", "login", "username", username, "password", password));
     }
 
-    public Map register(String username, String password, String fullname, String idcard, String phone) throws IOException {
+    public Map<String, Object> register(String username, String password, String fullname, String idcard, String phone) throws IOException {
         return service.send(Map.of(
                 "action", "register",
                 "username", username,
@@ -28,51 +33,130 @@ public class ClientController {
         ));
     }
 
-    public Map logout() throws IOException { return service.send(Map.of("action", "logout")); }
+    public Map<String, Object> logout() throws IOException { return service.send(Map.of("action", "logout")); }
 
-    public Map listDoctors() throws IOException { return service.send(Map.of("action", "list_doctors")); }
+    public Map<String, Object> listDoctors() throws IOException { return service.send(Map.of("action", "list_doctors")); }
 
-    public Map listAppts(int doctorId) throws IOException { return service.send(Map.of("action", "list_appts", "doctorId", doctorId)); }
+    public Map<String, Object> listAppts(int doctorId) throws IOException { return allPages(Map.of("action", "list_appts", "doctorId", doctorId)); }
 
-    public Map book(int doctorId, String patientName, String time) throws IOException {
+    public Map<String, Object> book(int doctorId, String patientName, String time) throws IOException {
         return service.send(Map.of("action", "book", "doctorId", doctorId, "patientName", patientName, "time", time));
     }
 
-    public Map listMyAppts() throws IOException { return service.send(Map.of("action", "list_my_appts")); }
+    public Map<String, Object> listMyAppts() throws IOException { return allPages(Map.of("action", "list_my_appts")); }
 
-    public Map cancel(int apptId) throws IOException { return service.send(Map.of("action", "cancel", "apptId", apptId)); }
+    public Map<String, Object> cancel(int apptId) throws IOException { return service.send(Map.of("action", "cancel", "apptId", apptId)); }
 
-    public Map searchName(String q) throws IOException { return service.send(Map.of("action", "search_name", "q", q)); }
+    public Map<String, Object> searchName(String q) throws IOException { return service.send(Map.of("action", "search_name", "q", q)); }
 
-    public Map searchDept(String q) throws IOException { return service.send(Map.of("action", "search_dept", "q", q)); }
+    public Map<String, Object> searchDept(String q) throws IOException { return service.send(Map.of("action", "search_dept", "q", q)); }
 
-    public Map addDoctor(String name, String dept, String info) throws IOException {
+    public Map<String, Object> search(String q, int limit) throws IOException { return service.send(Map.of("action", "search", "q", q, "limit", limit)); }
+
+    public Map<String, Object> addDoctor(String name, String dept, String info) throws IOException {
         return service.send(Map.of("action", "add_doctor", "name", name, "dept", dept, "info", info));
     }
 
-    public Map updateDoctor(int id, String name, String dept, String info) throws IOException {
+    public Map<String, Object> updateDoctor(int id, String name, String dept, String info) throws IOException {
         return service.send(Map.of("action", "update_doctor", "id", id, "name", name, "dept", dept, "info", info));
     }
 
-    public Map addSchedule(int doctorId, String start, String end, String note, int capacity) throws IOException {
+    public Map<String, Object> addSchedule(int doctorId, String start, String end, String note, int capacity) throws IOException {
         return service.send(Map.of("action", "add_schedule", "doctorId", doctorId, "start", start, "end", end, "note", note == null ? "" : note, "capacity", capacity));
     }
 
-    public Map listSchedules(int doctorId) throws IOException { return service.send(Map.of("action", "list_schedules", "doctorId", doctorId)); }
+    public Map<String, Object> listSchedules(int doctorId) throws IOException { return allPages(Map.of("action", "list_schedules", "doctorId", doctorId)); }
+
+    /**
+     * One page of a paginated listing; pass the previous response's nextCursor as {@code after} (null for the first page).
+     */
+    public Map<String, Object> page(Map<String, Object> request, String after, int limit) throws IOException {
+        Map<String, Object> req = new HashMap<>(request);
+        req.put("limit", limit);
+        if (after != null) req.put("after", after);
+        return service.send(req);
+    }
+
+    // follows nextCursor until the last page and returns one response holding all rows
+    private Map<String, Object> allPages(Map<String, Object> request) throws IOException {
+        List<Object> rows = new ArrayList<>();
+        String after = null;
+        while (true) {
+            Map<String, Object> resp = page(request, after, PAGE_SIZE);
+            if (!"OK".equals(resp.get("status"))) return resp;
+            Object data = resp.get("data");
+            if (data instanceof List) rows.addAll((List<?>) data);
+            after = (String) resp.get("nextCursor");
+            if (after == null) {
+                Map<String, Object> all = new HashMap<>(resp);
+                all.put("data", rows);
+                return all;
+            }
+        }
+    }
+
+    public Map<String, Object> importDoctorsXls(Path file) throws IOException {
+        return service.upload(Map.of("action", "import_doctors_xls"), file);
+    }
+
+    public Map<String, Object> exportAppointmentsXls(Path target) throws IOException {
+        return exportAppointmentsXls(target, null, null, null);
+    }
+
+    /**
+     * Exports the appointments in [from, to) (yyyy-MM-ddTHH:mm) of department {@code dept};
+     * null leaves a filter out.
+     */
+    public Map<String, Object> exportAppointmentsXls(Path target, String from, String to, String dept) throws IOException {
+        Map<String, Object> req = new HashMap<>();
+        req.put("action", "export_appointments_xls");
+        if (from != null) req.put("from", from);
+        if (to != null) req.put("to", to);
+        if (dept != null) req.put("dept", dept);
+        return service.download(req, target);
+    }
+
+    /**
+     * Writes the warehouse dump files (gzip CSV or NDJSON) to {@code dir}; {@code since}
+     * (yyyy-MM-ddTHH:mm) makes it incremental, null dumps everything.
+     */
+    public Map<String, Object> exportDump(Path dir, String format, String since) throws IOException {
+        Map<String, Object> req = new HashMap<>();
+        req.put("action", "export_dump");
+        if (format != null) req.put("format", format);
+        if (since != null) req.put("since", since);
+        return service.downloadFiles(req, dir);
+    }
+
+    /**
+     * Starts {@code job} (import_doctors_xls, export_appointments_xls or generate_report_pdf) as
+     * a background job on the server; the reply carries its jobId.
+     */
+    public Map<String, Object> submitJob(Map<String, Object> job) throws IOException {
+        return service.send(Map.of("action", "submit_job", "job", job));
+    }
+
+    public Map<String, Object> submitImportJob(Path file) throws IOException {
+        return service.upload(Map.of("action", "submit_job", "job", Map.of("action", "import_doctors_xls")), file);
+    }
+
+    public Map<String, Object> jobStatus(String jobId) throws IOException {
+        return service.send(Map.of("action", "job_status", "jobId", jobId));
+    }
 
-    public Map importDoctorsXls(String base64Content) throws IOException {
-        return service.send(Map.of("action", "import_doctors_xls", "content", base64Content));
+    public Map<String, Object> jobResult(String jobId) throws IOException {
+        return service.send(Map.of("action", "job_result", "jobId", jobId));
     }
 
-    public Map exportAppointmentsXls() throws IOException {
-        return service.send(Map.of("action", "export_appointments_xls"));
+    public Map<String, Object> jobResult(String jobId, Path target) throws IOException {
+        return service.download(Map.of("action", "job_result", "jobId", jobId), target);
     }
 
-    public Map generateReportPdf() throws IOException {
-        return service.send(Map.of("action", "generate_report_pdf"));
+    public Map<String, Object> generateReportPdf(Path target) throws IOException {
+        return service.download(Map.of("action", "generate_report_pdf"), target);
     }
 
-    public Map updateAccount(String password, String fullname, String phone) throws IOException {
+    public Map<String, Object> updateAccount(String password, String fullname, String phone) throws IOException {
         return service.send(Map.of(
                 "action", "update_account",
                 "password", password,
@@ -81,5 +165,5 @@ public class ClientController {
         ));
     }
 
-    public Map deleteAccount() throws IOException { return service.send(Map.of("action", "delete_account")); }
+    public Map<String, Object> deleteAccount() throws IOException { return service.send(Map.of("action", "delete_account")); }
 }
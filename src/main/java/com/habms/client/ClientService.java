@@ -1,51 +1,183 @@
 package com.habms.client;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.CRC32;
 
 /**
  * Thin network service that handles socket lifecycle and JSON request/response.
+ * Files go through {@link #upload} and {@link #download}, which use the server's chunked
+ * transfer: a JSON line with an {@code "attachment"} size, then frames
+ * {@code #<length> <crc32 hex>\n<bytes>} and a {@code #0 0\n} terminator.
  */
 public class ClientService {
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final int MAX_FRAME_BYTES = 1024 * 1024;
+
     private final String host;
     private final int port;
     private Socket socket;
-    private BufferedReader in;
-    private BufferedWriter out;
+    private InputStream in;
+    private OutputStream out;
     private static final ObjectMapper mapper = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> RESPONSE = new TypeReference<>() {};
 
     public ClientService(String host, int port) {
         this.host = host;
         this.port = port;
     }
 
-    public Map send(Map req) throws IOException {
+    public Map<String, Object> send(Map<String, ?> req) throws IOException {
         ensureConnection();
-        String payload = mapper.writeValueAsString(req);
-        out.write(payload);
-        out.write("\n");
+        writeLine(req);
         out.flush();
-        String line = in.readLine();
-        if (line == null) throw new IOException("服务器关闭连接");
-        return mapper.readValue(line, Map.class);
+        return readResponse();
+    }
+
+    /**
+     * Sends {@code req} followed by the contents of {@code file} without loading it into memory.
+     */
+    public Map<String, Object> upload(Map<String, ?> req, Path file) throws IOException {
+        ensureConnection();
+        Map<String, Object> header = new HashMap<>(req);
+        header.put("attachment", Files.size(file));
+        writeLine(header);
+        byte[] buf = new byte[CHUNK_BYTES];
+        CRC32 crc = new CRC32();
+        try (InputStream fin = Files.newInputStream(file)) {
+            int n;
+            while ((n = fin.readNBytes(buf, 0, buf.length)) > 0) {
+                crc.reset();
+                crc.update(buf, 0, n);
+                out.write(("#" + n + " " + Long.toHexString(crc.getValue()) + "\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(buf, 0, n);
+            }
+        }
+        out.write("#0 0\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return readResponse();
+    }
+
+    /**
+     * Sends {@code req} asking for a chunked reply and writes the returned file to {@code target}.
+     * Returns the response header; on an error reply {@code target} is left untouched.
+     */
+    public Map<String, Object> download(Map<String, ?> req, Path target) throws IOException {
+        Map<String, Object> resp = requestChunked(req);
+        if (!resp.containsKey("attachment")) return resp;
+        receive(target);
+        return resp;
+    }
+
+    /**
+     * Like {@link #download}, for replies that carry several files: the header lists them under
+     * {@code files}, and each is written to {@code dir} under its file name.
+     */
+    public Map<String, Object> downloadFiles(Map<String, ?> req, Path dir) throws IOException {
+        Map<String, Object> resp = requestChunked(req);
+        if (!resp.containsKey("attachment")) return resp;
+        for (Object f : (List<?>) resp.get("files")) {
+            // only the last path element, so a file name cannot point outside dir
+            Path name = Paths.get(String.valueOf(((Map<?, ?>) f).get("filename"))).getFileName();
+            receive(dir.resolve(name.toString()));
+        }
+        return resp;
+    }
+
+    private Map<String, Object> requestChunked(Map<String, ?> req) throws IOException {
+        ensureConnection();
+        Map<String, Object> request = new HashMap<>(req);
+        request.put("transfer", "chunked");
+        writeLine(request);
+        out.flush();
+        return readResponse();
+    }
+
+    // reads one run of frames up to the terminator into target
+    private void receive(Path target) throws IOException {
+        boolean done = false;
+        try (OutputStream fout = new BufferedOutputStream(Files.newOutputStream(target))) {
+            byte[] buf = new byte[CHUNK_BYTES];
+            CRC32 crc = new CRC32();
+            while (true) {
+                String header = readLine();
+                String[] parts = header == null ? null : header.split(" ");
+                if (parts == null || parts.length != 2 || !parts[0].startsWith("#")) throw new IOException("文件分块格式错误");
+                int len = Integer.parseInt(parts[0].substring(1));
+                if (len == 0) break;
+                if (len > MAX_FRAME_BYTES) throw new IOException("文件分块格式错误");
+                crc.reset();
+                int left = len;
+                while (left > 0) {
+                    int n = in.read(buf, 0, Math.min(left, buf.length));
+                    if (n < 0) throw new IOException("服务器关闭连接");
+                    crc.update(buf, 0, n);
+                    fout.write(buf, 0, n);
+                    left -= n;
+                }
+                if (crc.getValue() != Long.parseLong(parts[1], 16)) throw new IOException("文件分块校验失败");
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                // the stream is out of step with the protocol; drop the connection and the partial file
+                close();
+                Files.deleteIfExists(target);
+            }
+        }
     }
 
     public void close() {
         try { if (socket != null) socket.close(); } catch (Exception ignored) {}
     }
 
+    // Jackson writes UTF-8, which is what the server frames and decodes regardless of platform charset
+    private void writeLine(Map<String, ?> req) throws IOException {
+        out.write(mapper.writeValueAsBytes(req));
+        out.write('\n');
+    }
+
+    private Map<String, Object> readResponse() throws IOException {
+        String line = readLine();
+        if (line == null) throw new IOException("服务器关闭连接");
+        return mapper.readValue(line, RESPONSE);
+    }
+
+    // reads bytes up to '\n' so that binary frames after a line stay in the stream
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                // a line cut off by the server dropping the connection is not a response
+                if (line.size() == 0) return null;
+                throw new IOException("服务器响应不完整");
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
     private void ensureConnection() throws IOException {
         if (socket != null && socket.isConnected() && !socket.isClosed()) return;
         try { if (socket != null) socket.close(); } catch (Exception ignored) {}
         socket = new Socket(host, port);
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+        in = new BufferedInputStream(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream());
     }
 }
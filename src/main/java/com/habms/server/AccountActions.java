@@ -0,0 +1,48 @@
+package com.habms.server;
+
+import java.sql.SQLException;
+
+/**
+ * login, logout, register, update_account, delete_account.
+ */
+final class AccountActions {
+    private AccountActions() {}
+
+    static void login(Requests.Login req, Exchange ex) throws SQLException {
+        boolean ok = Database.checkLogin(req.username, req.password);
+        if (ok) {
+            String role = Database.getUserRole(req.username);
+            ex.session.login(req.username, role);
+            ex.ok();
+            ex.put("role", role);
+        } else {
+            ex.error("登录失败");
+        }
+    }
+
+    static void logout(Requests.Logout req, Exchange ex) {
+        ex.session.clear();
+        ex.ok();
+    }
+
+    static void register(Requests.Register req, Exchange ex) throws SQLException {
+        boolean reg = Database.registerPatient(req.username, req.password, req.fullname, req.idcard, req.phone);
+        if (reg) ex.ok();
+        else ex.error("用户名已存在");
+    }
+
+    static void deleteAccount(Requests.DeleteAccount req, Exchange ex) throws SQLException {
+        if (!ex.requireLogin()) return;
+        if (!"PATIENT".equals(ex.role())) { ex.error("仅患者可注销账户"); return; }
+        boolean del = Database.deletePatient(ex.user());
+        if (del) ex.session.clear();
+        ex.put("status", del ? "OK" : "ERR");
+    }
+
+    static void updateAccount(Requests.UpdateAccount req, Exchange ex) throws SQLException {
+        if (!ex.requireLogin()) return;
+        if (!"PATIENT".equals(ex.role())) { ex.error("仅患者可修改个人信息"); return; }
+        boolean up = Database.updatePatient(ex.user(), req.password, req.fullname, req.phone);
+        ex.put("status", up ? "OK" : "ERR");
+    }
+}
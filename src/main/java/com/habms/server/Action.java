@@ -0,0 +1,8 @@
+package com.habms.server;
+
+/**
+ * Handler of one request type, registered in {@link ActionRegistry}.
+ */
+interface Action<R extends Requests.Request> {
+    void handle(R request, Exchange ex) throws Exception;
+}
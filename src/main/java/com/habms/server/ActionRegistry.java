@@ -0,0 +1,142 @@
+package com.habms.server;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.jsontype.NamedType;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Maps each action name to its request class and handler. The table and the reader that binds
+ * a request line to its class are built once, when the class is loaded; a new action is one
+ * {@link #register} call plus its request class in {@link Requests}.
+ */
+public final class ActionRegistry {
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final Map<Class<?>, Action<?>> actions = new HashMap<>();
+    private static final Map<Class<?>, String> names = new HashMap<>();
+    private static final Map<String, Lane> lanes = new HashMap<>();
+    private static final ObjectReader reader;
+
+    static {
+        register("login", Requests.Login.class, AccountActions::login);
+        register("logout", Requests.Logout.class, AccountActions::logout);
+        register("register", Requests.Register.class, AccountActions::register);
+        register("delete_account", Requests.DeleteAccount.class, AccountActions::deleteAccount);
+        register("update_account", Requests.UpdateAccount.class, AccountActions::updateAccount);
+
+        register("list_doctors", Requests.ListDoctors.class, DoctorActions::listDoctors);
+        register("search_name", Requests.SearchName.class, DoctorActions::searchName);
+        register("search_dept", Requests.SearchDept.class, DoctorActions::searchDept);
+        register("search", Requests.Search.class, DoctorActions::search);
+        register("add_doctor", Requests.AddDoctor.class, DoctorActions::addDoctor);
+        register("update_doctor", Requests.UpdateDoctor.class, DoctorActions::updateDoctor);
+
+        register("book", Requests.Book.class, Lane.BOOKING, AppointmentActions::book);
+        register("cancel", Requests.Cancel.class, Lane.BOOKING, AppointmentActions::cancel);
+        register("book_batch", Requests.BookBatch.class, Lane.BOOKING, AppointmentActions::bookBatch);
+        register("cancel_batch", Requests.CancelBatch.class, Lane.BOOKING, AppointmentActions::cancelBatch);
+        register("add_schedule", Requests.AddSchedule.class, AppointmentActions::addSchedule);
+        register("list_schedules", Requests.ListSchedules.class, AppointmentActions::listSchedules);
+        register("add_schedule_template", Requests.AddScheduleTemplate.class, AppointmentActions::addScheduleTemplate);
+        register("list_schedule_templates", Requests.ListScheduleTemplates.class, AppointmentActions::listScheduleTemplates);
+        register("delete_schedule_template", Requests.DeleteScheduleTemplate.class, AppointmentActions::deleteScheduleTemplate);
+        register("generate_schedules", Requests.GenerateSchedules.class, Lane.BULK, AppointmentActions::generateSchedules);
+        register("list_appts", Requests.ListAppts.class, AppointmentActions::listAppts);
+        register("list_my_appts", Requests.ListMyAppts.class, AppointmentActions::listMyAppts);
+        register("list_all_appts", Requests.ListAllAppts.class, AppointmentActions::listAllAppts);
+
+        register("import_doctors_xls", Requests.ImportDoctorsXls.class, Lane.BULK, FileActions::importDoctors);
+        register("export_appointments_xls", Requests.ExportAppointmentsXls.class, Lane.BULK, FileActions::exportAppointments);
+        register("generate_report_pdf", Requests.GenerateReportPdf.class, Lane.BULK, FileActions::reportPdf);
+        register("export_dump", Requests.ExportDump.class, Lane.BULK, FileActions::exportDump);
+
+        register("submit_job", Requests.SubmitJob.class, JobActions::submitJob);
+        register("job_status", Requests.JobStatus.class, JobActions::jobStatus);
+        register("job_result", Requests.JobResult.class, Lane.BULK, JobActions::jobResult);
+
+        register("server_stats", Requests.ServerStats.class, (req, ex) -> {
+            if (!ex.requireAdmin()) return;
+            ex.ok();
+            ex.put("data", ServerMetrics.snapshot());
+        });
+        register("stats_timeseries", Requests.StatsTimeseries.class, StatsActions::timeseries);
+        register("verify_rollups", Requests.VerifyRollups.class, Lane.BULK, StatsActions::verifyRollups);
+
+        // built after every subtype is registered, so the reader sees the complete table
+        reader = mapper.readerFor(Requests.Request.class);
+    }
+
+    private ActionRegistry() {}
+
+    private static <R extends Requests.Request> void register(String name, Class<R> type, Action<R> action) {
+        register(name, type, Lane.INTERACTIVE, action);
+    }
+
+    private static <R extends Requests.Request> void register(String name, Class<R> type, Lane lane, Action<R> action) {
+        mapper.registerSubtypes(new NamedType(type, name));
+        actions.put(type, action);
+        names.put(type, name);
+        lanes.put(name, lane);
+    }
+
+    /**
+     * The lane a raw request line runs in. The IO thread calls this for every request, so it only
+     * looks for the first {@code "action":"..."} in the line instead of parsing it; anything it
+     * cannot classify, including malformed lines, runs in the interactive lane, where parsing
+     * reports the error.
+     */
+    static Lane laneOf(String line) {
+        int i = line.indexOf("\"action\"");
+        if (i < 0) return Lane.INTERACTIVE;
+        i += 8;
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) i++;
+        if (i >= line.length() || line.charAt(i) != ':') return Lane.INTERACTIVE;
+        i++;
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) i++;
+        if (i >= line.length() || line.charAt(i) != '"') return Lane.INTERACTIVE;
+        int end = line.indexOf('"', i + 1);
+        if (end < 0) return Lane.INTERACTIVE;
+        return lanes.getOrDefault(line.substring(i + 1, end), Lane.INTERACTIVE);
+    }
+
+    /**
+     * Binds one request line to its request class. An unknown or missing action fails with
+     * {@link com.fasterxml.jackson.databind.exc.InvalidTypeIdException}.
+     */
+    public static Requests.Request parse(String json) throws IOException {
+        return reader.readValue(json);
+    }
+
+    /**
+     * Binds a request nested in another one (e.g. the job of submit_job); fails with
+     * IllegalArgumentException if it is not a known request.
+     */
+    static Requests.Request convert(Map<String, Object> body) {
+        return mapper.convertValue(body, Requests.Request.class);
+    }
+
+    /**
+     * The action name a parsed request was registered under.
+     */
+    public static String actionName(Requests.Request req) {
+        return names.get(req.getClass());
+    }
+
+    public static Set<String> actionNames() {
+        return Collections.unmodifiableSet(new TreeSet<>(names.values()));
+    }
+
+    @SuppressWarnings("unchecked")
+    static void dispatch(Requests.Request req, Exchange ex) throws Exception {
+        Action<Requests.Request> action = (Action<Requests.Request>) actions.get(req.getClass());
+        action.handle(req, ex);
+    }
+}
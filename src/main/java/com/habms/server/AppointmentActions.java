@@ -0,0 +1,225 @@
+package com.habms.server;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Schedules, booking, cancellation and the appointment listings.
+ */
+final class AppointmentActions {
+    private static final DateTimeFormatter HOUR_MINUTE = DateTimeFormatter.ofPattern("HH:mm");
+
+    private AppointmentActions() {}
+
+    static void book(Requests.Book req, Exchange ex) throws SQLException {
+        if (!ex.requireLogin()) return;
+        LocalDateTime time = LocalDateTime.parse(req.time, Exchange.TIME);
+        int result = Database.bookAppointment(req.doctorId, ex.user(), req.patientName, time);
+        if (result == 0) ex.ok();
+        else if (result == 1) ex.error("未找到对应排班");
+        else if (result == 2) ex.error("您在该时间段已有预约，不能重复预约");
+        else if (result == 3) ex.error("该排班已满，无法预约");
+        else ex.error("预约失败");
+    }
+
+    static void cancel(Requests.Cancel req, Exchange ex) throws SQLException {
+        boolean c = Database.cancelAppointment(req.apptId);
+        if (c) ex.ok();
+        else ex.error("未找到预约");
+    }
+
+    /**
+     * Books for many patients in one transaction; each item gets a code as for book (0 booked,
+     * 1 no schedule, 2 patient already booked in the interval, 3 full) and, when booked, its apptId.
+     */
+    static void bookBatch(Requests.BookBatch req, Exchange ex) throws SQLException {
+        if (!ex.requireAdmin()) return;
+        if (!batchSize(req.items, ex)) return;
+        List<Database.BookingItem> items = new ArrayList<>(req.items.size());
+        for (int i = 0; i < req.items.size(); i++) {
+            Requests.BookItem it = req.items.get(i);
+            if (it == null || it.patientUsername == null || it.patientUsername.isEmpty()) {
+                ex.error("第 " + i + " 项缺少 patientUsername");
+                return;
+            }
+            LocalDateTime time;
+            try {
+                time = LocalDateTime.parse(it.time, Exchange.TIME);
+            } catch (DateTimeParseException | NullPointerException e) {
+                ex.error("第 " + i + " 项 time 格式应为 yyyy-MM-ddTHH:mm");
+                return;
+            }
+            items.add(new Database.BookingItem(it.doctorId, it.patientUsername, it.patientName, time));
+        }
+        int booked = Database.bookAppointments(items);
+        List<Map<String, Object>> results = new ArrayList<>(items.size());
+        for (Database.BookingItem item : items) {
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("code", item.code);
+            if (item.code == 0) r.put("apptId", item.apptId);
+            results.add(r);
+        }
+        ex.ok();
+        ex.put("booked", booked);
+        ex.put("results", results);
+    }
+
+    /**
+     * Cancels many appointments in one transaction; each id gets code 0 (cancelled) or 1 (not found).
+     */
+    static void cancelBatch(Requests.CancelBatch req, Exchange ex) throws SQLException {
+        if (!ex.requireAdmin()) return;
+        if (!batchSize(req.apptIds, ex)) return;
+        if (req.apptIds.contains(null)) { ex.error("apptIds 不能包含空值"); return; }
+        int[] codes = Database.cancelAppointments(req.apptIds);
+        List<Map<String, Object>> results = new ArrayList<>(codes.length);
+        int cancelled = 0;
+        for (int i = 0; i < codes.length; i++) {
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("apptId", req.apptIds.get(i));
+            r.put("code", codes[i]);
+            results.add(r);
+            if (codes[i] == 0) cancelled++;
+        }
+        ex.ok();
+        ex.put("cancelled", cancelled);
+        ex.put("results", results);
+    }
+
+    private static boolean batchSize(List<?> items, Exchange ex) {
+        if (items == null || items.isEmpty()) { ex.error("批量内容为空"); return false; }
+        if (items.size() > ServerConfig.BATCH_MAX_ITEMS) {
+            ex.error("批量过大，最多 " + ServerConfig.BATCH_MAX_ITEMS + " 项");
+            return false;
+        }
+        return true;
+    }
+
+    static void addSchedule(Requests.AddSchedule req, Exchange ex) throws SQLException {
+        if (!ex.requireAdmin()) return;
+        int capacity = req.capacity == null ? 1 : Math.max(1, req.capacity);
+        LocalDateTime start = LocalDateTime.parse(req.start, Exchange.TIME);
+        LocalDateTime end = LocalDateTime.parse(req.end, Exchange.TIME);
+        boolean ok = Database.addSchedule(req.doctorId, start, end, req.note, capacity);
+        if (ok) ex.ok();
+        else ex.error("排班时间无效或与已有排班冲突");
+    }
+
+    static void addScheduleTemplate(Requests.AddScheduleTemplate req, Exchange ex) throws SQLException {
+        if (!ex.requireAdmin()) return;
+        Set<DayOfWeek> weekdays = EnumSet.noneOf(DayOfWeek.class);
+        LocalTime start, end;
+        try {
+            if (req.weekdays != null) for (int d : req.weekdays) weekdays.add(DayOfWeek.of(d));
+            start = LocalTime.parse(req.start, HOUR_MINUTE);
+            end = LocalTime.parse(req.end, HOUR_MINUTE);
+        } catch (DateTimeException | NullPointerException e) {
+            ex.error("weekdays 应为 1-7，start/end 格式应为 HH:mm");
+            return;
+        }
+        int capacity = req.capacity == null ? 1 : Math.max(1, req.capacity);
+        ScheduleTemplates.Template t = new ScheduleTemplates.Template(0, req.doctorId, weekdays, start, end, req.slotMinutes, capacity, req.note);
+        if (!t.valid()) {
+            ex.error("模板无效：需要至少一个工作日，且时段内至少能容纳一个号段");
+            return;
+        }
+        int id = Database.addScheduleTemplate(t);
+        if (id < 0) { ex.error("医生不存在"); return; }
+        ex.ok();
+        ex.put("id", id);
+    }
+
+    static void listScheduleTemplates(Requests.ListScheduleTemplates req, Exchange ex) throws SQLException {
+        if (!ex.requireAdmin()) return;
+        List<Map<String, Object>> data = new ArrayList<>();
+        for (ScheduleTemplates.Template t : Database.getScheduleTemplates(req.doctorId)) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", t.id);
+            m.put("doctorId", t.doctorId);
+            List<Integer> days = new ArrayList<>();
+            for (DayOfWeek d : t.weekdays) days.add(d.getValue());
+            m.put("weekdays", days);
+            m.put("start", t.start.format(HOUR_MINUTE));
+            m.put("end", t.end.format(HOUR_MINUTE));
+            m.put("slotMinutes", t.slotMinutes);
+            m.put("capacity", t.capacity);
+            m.put("note", t.note);
+            data.add(m);
+        }
+        ex.ok();
+        ex.put("data", data);
+    }
+
+    static void deleteScheduleTemplate(Requests.DeleteScheduleTemplate req, Exchange ex) throws SQLException {
+        if (!ex.requireAdmin()) return;
+        if (Database.deleteScheduleTemplate(req.id)) ex.ok();
+        else ex.error("模板不存在");
+    }
+
+    /**
+     * Expands the templates over [from, to) into schedules, skipping slots that overlap existing
+     * ones; a repeated run over the same days adds nothing.
+     */
+    static void generateSchedules(Requests.GenerateSchedules req, Exchange ex) throws SQLException {
+        if (!ex.requireAdmin()) return;
+        LocalDate from, to;
+        try {
+            from = LocalDate.parse(req.from);
+            to = LocalDate.parse(req.to);
+        } catch (DateTimeParseException | NullPointerException e) {
+            ex.error("from/to 格式应为 yyyy-MM-dd");
+            return;
+        }
+        if (!to.isAfter(from)) { ex.error("日期范围无效"); return; }
+        if (ChronoUnit.DAYS.between(from, to) > ServerConfig.SCHEDULE_GENERATE_MAX_DAYS) {
+            ex.error("日期范围过大，最多 " + ServerConfig.SCHEDULE_GENERATE_MAX_DAYS + " 天");
+            return;
+        }
+        ScheduleTemplates.Result r = Database.generateSchedules(from, to, req.doctorId);
+        ex.ok();
+        ex.put("templates", r.templates);
+        ex.put("addedSchedules", r.addedSchedules);
+        ex.put("skippedSlots", r.skippedSlots);
+    }
+
+    static void listSchedules(Requests.ListSchedules req, Exchange ex) throws SQLException, IOException {
+        Page.Query pq = ex.page(req);
+        if (pq == null) return;
+        ex.list(sink -> Database.getSchedulesList(req.doctorId, pq, sink));
+    }
+
+    static void listAppts(Requests.ListAppts req, Exchange ex) throws SQLException, IOException {
+        Page.Query pq = ex.page(req);
+        if (pq == null) return;
+        ex.list(sink -> Database.getAppointmentsList(req.doctorId, pq, sink));
+    }
+
+    static void listMyAppts(Requests.ListMyAppts req, Exchange ex) throws SQLException, IOException {
+        if (!ex.requireLogin()) return;
+        Page.Query pq = ex.page(req);
+        if (pq == null) return;
+        String user = ex.user();
+        ex.list(sink -> Database.getAppointmentsForPatient(user, pq, sink));
+    }
+
+    static void listAllAppts(Requests.ListAllAppts req, Exchange ex) throws SQLException, IOException {
+        if (!ex.requireAdmin()) return;
+        Page.Query pq = ex.page(req);
+        if (pq == null) return;
+        ex.list(sink -> Database.listAllAppointments(pq, sink));
+    }
+}
@@ -0,0 +1,430 @@
+package com.habms.server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Appointment counts per doctor and hour in the {@code appt_rollup} table, maintained by the
+ * booking and cancel transactions, plus the total per doctor in memory. The department and
+ * workload reports read only the totals, so their cost grows with the number of doctors instead
+ * of the appointment history. Departments are looked up in the doctor catalog when a report is
+ * built, so a doctor moved to another department takes their appointments along.
+ *
+ * The table is the source of truth: totals are loaded from it at startup, and {@link #verify}
+ * recounts it from {@code appointments} and can repair both.
+ *
+ * {@link #hours} serves time series from the table. Hours that have ended are cached, since
+ * their counts only change through the rare booking or cancellation of a past appointment, which
+ * evicts the hour again.
+ */
+class ApptRollup {
+    private static final int MAX_SAMPLES = 20;
+
+    /**
+     * One (doctor, hour) bucket whose stored count differs from the appointments.
+     */
+    static final class Mismatch {
+        final int doctorId;
+        final LocalDateTime bucket;
+        final int expected;
+        final int actual;
+
+        Mismatch(int doctorId, LocalDateTime bucket, int expected, int actual) {
+            this.doctorId = doctorId;
+            this.bucket = bucket;
+            this.expected = expected;
+            this.actual = actual;
+        }
+    }
+
+    static final class Report {
+        int buckets;
+        int tableMismatches;
+        int memoryMismatches;
+        boolean repaired;
+        final List<Mismatch> samples = new ArrayList<>();
+    }
+
+    /**
+     * The count changes of a transaction that books or cancels appointments, summed per
+     * (doctor, hour) so that each bucket is written once, in key order.
+     */
+    static final class Changes {
+        private final TreeMap<Integer, TreeMap<LocalDateTime, Integer>> deltas = new TreeMap<>();
+
+        static Changes of(int doctorId, LocalDateTime time, int delta) {
+            Changes c = new Changes();
+            c.add(doctorId, time, delta);
+            return c;
+        }
+
+        void add(int doctorId, LocalDateTime time, int delta) {
+            deltas.computeIfAbsent(doctorId, k -> new TreeMap<>()).merge(bucketOf(time), delta, Integer::sum);
+        }
+    }
+
+    /**
+     * Brackets the caller's {@code conn.commit()}: it holds the read side of the commit lock, so a
+     * verification never sees the committed rows without the totals. Call {@link #committed()}
+     * once the commit succeeded; closing applies the changes to the totals and the cache only then.
+     */
+    final class Commit implements AutoCloseable {
+        private final Changes changes;
+        private boolean committed = false;
+
+        private Commit(Changes changes) {
+            this.changes = changes;
+        }
+
+        void committed() {
+            committed = true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (!committed) return;
+                changes.deltas.forEach((doctorId, buckets) -> {
+                    int delta = buckets.values().stream().mapToInt(Integer::intValue).sum();
+                    if (delta != 0) totals.computeIfAbsent(doctorId, k -> new LongAdder()).add(delta);
+                });
+            } finally {
+                commits.readLock().unlock();
+            }
+            Set<LocalDateTime> hours = new HashSet<>();
+            changes.deltas.values().forEach(buckets -> hours.addAll(buckets.keySet()));
+            for (LocalDateTime hour : hours) evict(hour);
+        }
+    }
+
+    private static final class Key {
+        final int doctorId;
+        final LocalDateTime bucket;
+
+        Key(int doctorId, LocalDateTime bucket) {
+            this.doctorId = doctorId;
+            this.bucket = bucket;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return doctorId == k.doctorId && bucket.equals(k.bucket);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(doctorId, bucket);
+        }
+    }
+
+    /**
+     * Source of a connection for the table reads that the cache cannot answer.
+     */
+    interface Connections {
+        Connection get() throws SQLException;
+    }
+
+    private final ConcurrentHashMap<Integer, LongAdder> totals = new ConcurrentHashMap<>();
+    // per-doctor counts of ended hours, least recently used first; guarded by itself
+    private final LinkedHashMap<LocalDateTime, Map<Integer, Integer>> closedHours = new LinkedHashMap<LocalDateTime, Map<Integer, Integer>>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LocalDateTime, Map<Integer, Integer>> eldest) {
+            return size() > ServerConfig.STATS_CACHE_HOURS;
+        }
+    };
+    // bumped on every eviction, so that a read racing with a write does not cache what it read
+    private long generation = 0;
+    private final AtomicLong hourHits = new AtomicLong();
+    private final AtomicLong hourMisses = new AtomicLong();
+    // bookings hold the read side from commit until the totals are updated; verify holds the write side
+    private final ReadWriteLock commits = new ReentrantReadWriteLock();
+    private final AtomicLong verifications = new AtomicLong();
+    private final AtomicLong repairs = new AtomicLong();
+
+    static LocalDateTime bucketOf(LocalDateTime time) {
+        return time.truncatedTo(ChronoUnit.HOURS);
+    }
+
+    /**
+     * Replaces the totals with the sums of the table.
+     */
+    void load(Connection conn) throws SQLException {
+        Map<Integer, LongAdder> fresh = new HashMap<>();
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT doctor_id, SUM(appointments) FROM appt_rollup GROUP BY doctor_id")) {
+            while (rs.next()) {
+                LongAdder n = new LongAdder();
+                n.add(rs.getLong(2));
+                fresh.put(rs.getInt(1), n);
+            }
+        }
+        totals.clear();
+        totals.putAll(fresh);
+    }
+
+    // adds delta to the bucket of time, inside the caller's transaction; the row lock is held until commit, like the schedule's
+    private static void add(Connection conn, int doctorId, LocalDateTime time, int delta) throws SQLException {
+        Timestamp bucket = Timestamp.valueOf(bucketOf(time));
+        PreparedStatement upd = conn.prepareStatement("UPDATE appt_rollup SET appointments=appointments+? WHERE doctor_id=? AND bucket=?");
+        upd.setInt(1, delta); upd.setInt(2, doctorId); upd.setTimestamp(3, bucket);
+        if (upd.executeUpdate() > 0) return;
+        PreparedStatement ins = conn.prepareStatement("INSERT INTO appt_rollup(doctor_id,bucket,appointments) VALUES(?,?,?)");
+        ins.setInt(1, doctorId); ins.setTimestamp(2, bucket); ins.setInt(3, delta);
+        try {
+            ins.executeUpdate();
+        } catch (SQLException ex) {
+            // 23505: a concurrent booking created the bucket first; only this statement was rolled back
+            if (!"23505".equals(ex.getSQLState())) throw ex;
+            upd.executeUpdate();
+        }
+    }
+
+    /**
+     * Writes the changes to the rollup rows inside the caller's transaction and holds off
+     * verification until the returned {@link Commit} is closed; the caller commits in between.
+     */
+    Commit beforeCommit(Connection conn, Changes changes) throws SQLException {
+        for (Map.Entry<Integer, TreeMap<LocalDateTime, Integer>> d : changes.deltas.entrySet()) {
+            for (Map.Entry<LocalDateTime, Integer> b : d.getValue().entrySet()) {
+                if (b.getValue() != 0) add(conn, d.getKey(), b.getKey(), b.getValue());
+            }
+        }
+        commits.readLock().lock();
+        return new Commit(changes);
+    }
+
+    private void evict(LocalDateTime hour) {
+        synchronized (closedHours) {
+            generation++;
+            if (hour == null) closedHours.clear();
+            else closedHours.remove(hour);
+        }
+    }
+
+    /**
+     * Per-doctor counts of every hour in [from, to), in order; both bounds are whole hours. Hours
+     * without appointments map to an empty map. Only the hours missing from the cache are read,
+     * in one range query.
+     */
+    Map<LocalDateTime, Map<Integer, Integer>> hours(LocalDateTime from, LocalDateTime to, Connections db) throws SQLException {
+        LocalDateTime now = LocalDateTime.now();
+        Map<LocalDateTime, Map<Integer, Integer>> found = new HashMap<>();
+        LocalDateTime first = null, last = null;
+        long seen;
+        synchronized (closedHours) {
+            seen = generation;
+            for (LocalDateTime h = from; h.isBefore(to); h = h.plusHours(1)) {
+                Map<Integer, Integer> c = closedHours.get(h);
+                if (c != null) {
+                    found.put(h, c);
+                } else {
+                    if (first == null) first = h;
+                    last = h;
+                }
+            }
+        }
+        hourHits.addAndGet(found.size());
+        if (first != null) {
+            Map<LocalDateTime, Map<Integer, Integer>> loaded = new HashMap<>();
+            try (Connection conn = db.get()) {
+                PreparedStatement ps = conn.prepareStatement("SELECT bucket, doctor_id, appointments FROM appt_rollup WHERE bucket>=? AND bucket<? AND appointments<>0");
+                ps.setTimestamp(1, Timestamp.valueOf(first));
+                ps.setTimestamp(2, Timestamp.valueOf(last.plusHours(1)));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        loaded.computeIfAbsent(rs.getTimestamp(1).toLocalDateTime(), k -> new HashMap<>()).put(rs.getInt(2), rs.getInt(3));
+                    }
+                }
+            }
+            Map<LocalDateTime, Map<Integer, Integer>> closed = new HashMap<>();
+            for (LocalDateTime h = first; !h.isAfter(last); h = h.plusHours(1)) {
+                if (found.containsKey(h)) continue;
+                Map<Integer, Integer> c = loaded.get(h);
+                c = c == null ? Collections.emptyMap() : Collections.unmodifiableMap(c);
+                found.put(h, c);
+                hourMisses.incrementAndGet();
+                if (!h.plusHours(1).isAfter(now)) closed.put(h, c);
+            }
+            synchronized (closedHours) {
+                if (generation == seen) closedHours.putAll(closed);
+            }
+        }
+        Map<LocalDateTime, Map<Integer, Integer>> series = new LinkedHashMap<>();
+        for (LocalDateTime h = from; h.isBefore(to); h = h.plusHours(1)) series.put(h, found.get(h));
+        return series;
+    }
+
+    long total(int doctorId) {
+        LongAdder n = totals.get(doctorId);
+        return n == null ? 0 : n.sum();
+    }
+
+    Map<Integer, Long> totals() {
+        Map<Integer, Long> m = new HashMap<>();
+        totals.forEach((doctorId, n) -> m.put(doctorId, n.sum()));
+        return m;
+    }
+
+    /**
+     * Appointments per doctor in [from, to), both whole hours, summed from the table.
+     */
+    static Map<Integer, Long> totals(Connection conn, LocalDateTime from, LocalDateTime to) throws SQLException {
+        Map<Integer, Long> m = new HashMap<>();
+        PreparedStatement ps = conn.prepareStatement("SELECT doctor_id, SUM(appointments) FROM appt_rollup WHERE bucket>=? AND bucket<? GROUP BY doctor_id");
+        ps.setTimestamp(1, Timestamp.valueOf(from));
+        ps.setTimestamp(2, Timestamp.valueOf(to));
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) m.put(rs.getInt(1), rs.getLong(2));
+        }
+        return m;
+    }
+
+    /**
+     * Recounts every bucket from {@code appointments} and compares the table and the totals with
+     * it; with {@code repair} the table is rewritten and the totals reloaded. Bookings and
+     * cancellations wait while this runs.
+     */
+    Report verify(Connection conn, boolean repair) throws SQLException {
+        Report report = new Report();
+        try {
+            conn.setAutoCommit(false);
+            try (Statement st = conn.createStatement()) {
+                // blocks new appointment writes and waits for those in flight, so the recount is exact
+                st.executeUpdate("LOCK TABLE appointments IN SHARE MODE");
+                st.executeUpdate("LOCK TABLE appt_rollup IN EXCLUSIVE MODE");
+            }
+            // transactions that committed before the locks may still be updating the totals
+            commits.writeLock().lock();
+            try {
+                Map<Key, Integer> expected = count(conn);
+                Map<Key, Integer> stored = stored(conn);
+                report.buckets = expected.size();
+                Map<Integer, Long> expectedTotals = new HashMap<>();
+                for (Map.Entry<Key, Integer> e : expected.entrySet()) {
+                    expectedTotals.merge(e.getKey().doctorId, (long) e.getValue(), Long::sum);
+                    int actual = stored.getOrDefault(e.getKey(), 0);
+                    if (actual != e.getValue()) report.tableMismatches++;
+                    if (actual != e.getValue() && report.samples.size() < MAX_SAMPLES) {
+                        report.samples.add(new Mismatch(e.getKey().doctorId, e.getKey().bucket, e.getValue(), actual));
+                    }
+                }
+                for (Map.Entry<Key, Integer> e : stored.entrySet()) {
+                    if (expected.containsKey(e.getKey()) || e.getValue() == 0) continue;
+                    report.tableMismatches++;
+                    if (report.samples.size() < MAX_SAMPLES) {
+                        report.samples.add(new Mismatch(e.getKey().doctorId, e.getKey().bucket, 0, e.getValue()));
+                    }
+                }
+                Set<Integer> doctors = new HashSet<>(expectedTotals.keySet());
+                doctors.addAll(totals.keySet());
+                for (Integer doctorId : doctors) {
+                    if (expectedTotals.getOrDefault(doctorId, 0L) != total(doctorId)) report.memoryMismatches++;
+                }
+                if (repair && report.tableMismatches + report.memoryMismatches > 0) {
+                    try (Statement st = conn.createStatement()) {
+                        st.executeUpdate("DELETE FROM appt_rollup");
+                    }
+                    insert(conn, expected);
+                    report.repaired = true;
+                }
+                conn.commit();
+                if (report.repaired) {
+                    load(conn);
+                    evict(null);
+                    repairs.incrementAndGet();
+                }
+            } finally {
+                commits.writeLock().unlock();
+            }
+            verifications.incrementAndGet();
+            return report;
+        } catch (SQLException ex) {
+            try { conn.rollback(); } catch (SQLException ignore) {}
+            throw ex;
+        } finally {
+            try { conn.setAutoCommit(true); } catch (SQLException ignore) {}
+        }
+    }
+
+    /**
+     * Fills an empty table from {@code appointments}; used by the migration that creates it.
+     */
+    static void fill(Connection conn) throws SQLException {
+        insert(conn, count(conn));
+    }
+
+    private static Map<Key, Integer> count(Connection conn) throws SQLException {
+        Map<Key, Integer> counts = new HashMap<>();
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT doctor_id, DATE(appt_time), HOUR(appt_time), COUNT(*) FROM appointments"
+                     + " WHERE doctor_id IS NOT NULL AND appt_time IS NOT NULL GROUP BY doctor_id, DATE(appt_time), HOUR(appt_time)")) {
+            while (rs.next()) {
+                LocalDateTime bucket = rs.getDate(2).toLocalDate().atTime(rs.getInt(3), 0);
+                counts.put(new Key(rs.getInt(1), bucket), rs.getInt(4));
+            }
+        }
+        return counts;
+    }
+
+    private static Map<Key, Integer> stored(Connection conn) throws SQLException {
+        Map<Key, Integer> counts = new HashMap<>();
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT doctor_id, bucket, appointments FROM appt_rollup")) {
+            while (rs.next()) counts.put(new Key(rs.getInt(1), rs.getTimestamp(2).toLocalDateTime()), rs.getInt(3));
+        }
+        return counts;
+    }
+
+    private static void insert(Connection conn, Map<Key, Integer> counts) throws SQLException {
+        try (PreparedStatement ins = conn.prepareStatement("INSERT INTO appt_rollup(doctor_id,bucket,appointments) VALUES(?,?,?)")) {
+            int pending = 0;
+            for (Map.Entry<Key, Integer> e : counts.entrySet()) {
+                ins.setInt(1, e.getKey().doctorId);
+                ins.setTimestamp(2, Timestamp.valueOf(e.getKey().bucket));
+                ins.setInt(3, e.getValue());
+                ins.addBatch();
+                if (++pending == 1000) {
+                    ins.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) ins.executeBatch();
+        }
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("doctors", totals.size());
+        m.put("verifications", verifications.get());
+        m.put("repairs", repairs.get());
+        synchronized (closedHours) {
+            m.put("cachedHours", closedHours.size());
+        }
+        m.put("hourHits", hourHits.get());
+        m.put("hourMisses", hourMisses.get());
+        return m;
+    }
+}
@@ -0,0 +1,259 @@
+package com.habms.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-channel state of the NIO front end: line framing buffer, pending requests and their
+ * uploads, queued response bytes and the login {@link Session} of the connection.
+ */
+class ChannelContext {
+    // Base64 encoded Excel imports arrive as a single line, so the limit is generous
+    static final int MAX_LINE_BYTES = 64 * 1024 * 1024;
+    private static final int INITIAL_LINE_BYTES = 1024;
+    private static final int MAX_FRAME_HEADER_BYTES = 64;
+
+    private final SocketChannel channel;
+    private final Session session = new Session();
+    private final ArrayDeque<Incoming> lines = new ArrayDeque<>();
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private byte[] lineBuf = new byte[INITIAL_LINE_BYTES];
+    private int lineLen = 0;
+    // upload still receiving frames (IO thread only); frameLeft counts the bytes of the current frame
+    private FileTransfer.Upload receiving;
+    private long frameLeft = 0;
+    private long frameCrc;
+    private boolean busy = false;
+    // IO thread only: reading is paused while the pipeline is full; held keeps the rest of that read
+    private boolean readPaused = false;
+    private ByteBuffer held;
+    private volatile boolean inputClosed = false;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    // queued but unwritten response bytes; a worker streaming a large response waits on drainLock
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final Object drainLock = new Object();
+    private volatile boolean drainWaiter = false;
+
+    ChannelContext(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    SocketChannel channel() { return channel; }
+
+    Session session() { return session; }
+
+    /**
+     * A complete request line together with the upload that follows it, if it announced one.
+     */
+    static final class Incoming {
+        final String line;
+        final FileTransfer.Upload upload;
+
+        Incoming(String line, FileTransfer.Upload upload) {
+            this.line = line;
+            this.upload = upload;
+        }
+
+        boolean ready() { return upload == null || upload.isComplete(); }
+    }
+
+    /**
+     * Splits the bytes just read into newline-delimited request lines, spooling the frames of a
+     * chunked upload (see {@link FileTransfer}) to the request that announced it. Once
+     * {@link ServerConfig#PIPELINE_MAX_REQUESTS} requests are queued the rest of the buffer is held
+     * back and {@link #readPaused()} turns true, until {@link #resumeReading()}.
+     * Returns false when a single line grows beyond {@link #MAX_LINE_BYTES} or a frame is malformed.
+     */
+    boolean feed(ByteBuffer buf) {
+        while (buf.hasRemaining()) {
+            if (frameLeft > 0) {
+                int n = (int) Math.min(frameLeft, buf.remaining());
+                ByteBuffer part = buf.slice();
+                part.limit(n);
+                receiving.write(part);
+                buf.position(buf.position() + n);
+                frameLeft -= n;
+                if (frameLeft == 0) receiving.endFrame(frameCrc);
+                continue;
+            }
+            byte b = buf.get();
+            if (b == '\n') {
+                int len = lineLen;
+                if (len > 0 && lineBuf[len - 1] == '\r') len--;
+                String line = new String(lineBuf, 0, len, StandardCharsets.UTF_8);
+                lineLen = 0;
+                if (lineBuf.length > 64 * INITIAL_LINE_BYTES) lineBuf = new byte[INITIAL_LINE_BYTES];
+                if (receiving != null) {
+                    if (!frameHeader(line)) return false;
+                    continue;
+                }
+                if (line.trim().isEmpty()) continue;
+                FileTransfer.Upload upload = FileTransfer.announcesAttachment(line) ? new FileTransfer.Upload(ServerConfig.UPLOAD_MAX_BYTES) : null;
+                boolean full;
+                synchronized (this) {
+                    lines.add(new Incoming(line, upload));
+                    full = lines.size() >= ServerConfig.PIPELINE_MAX_REQUESTS;
+                }
+                receiving = upload;
+                // an upload still arriving is the last request queued, so its frames are always read
+                if (full && receiving == null) {
+                    held = ByteBuffer.allocate(buf.remaining()).put(buf).flip();
+                    readPaused = true;
+                    return true;
+                }
+            } else {
+                if (receiving != null && lineLen >= MAX_FRAME_HEADER_BYTES) return false;
+                if (lineLen == lineBuf.length) {
+                    if (lineLen >= MAX_LINE_BYTES) return false;
+                    byte[] bigger = new byte[Math.min(MAX_LINE_BYTES, lineBuf.length * 2)];
+                    System.arraycopy(lineBuf, 0, bigger, 0, lineLen);
+                    lineBuf = bigger;
+                }
+                lineBuf[lineLen++] = b;
+            }
+        }
+        return true;
+    }
+
+    boolean readPaused() { return readPaused; }
+
+    /**
+     * Called on the IO thread after a request finished: if reading was paused and the queue has
+     * room again, feeds the held bytes. Reading stays paused if they fill the queue once more;
+     * returns false as {@link #feed} does.
+     */
+    boolean resumeReading() {
+        if (!readPaused) return true;
+        synchronized (this) {
+            if (lines.size() >= ServerConfig.PIPELINE_MAX_REQUESTS) return true;
+        }
+        readPaused = false;
+        ByteBuffer rest = held;
+        held = null;
+        return feed(rest);
+    }
+
+    private boolean frameHeader(String header) {
+        long[] h = FileTransfer.parseHeader(header);
+        if (h == null) return false;
+        if (h[0] == 0) {
+            // terminator: the announcing request can now be dispatched
+            receiving.finish();
+            receiving = null;
+        } else {
+            frameLeft = h[0];
+            frameCrc = h[1];
+            receiving.startFrame();
+        }
+        return true;
+    }
+
+    /**
+     * Takes the next request if no other request of this connection is in progress and its
+     * upload, if any, has fully arrived. Responses must go out in request order, so a
+     * connection never has two requests in flight.
+     */
+    synchronized Incoming next() {
+        if (busy || lines.isEmpty() || !lines.peek().ready()) return null;
+        busy = true;
+        return lines.poll();
+    }
+
+    synchronized void finished() {
+        busy = false;
+    }
+
+    synchronized boolean isIdle() {
+        return !busy && lines.isEmpty();
+    }
+
+    void enqueue(ByteBuffer data) {
+        pendingBytes.addAndGet(data.remaining());
+        outbound.add(data);
+    }
+
+    /**
+     * Blocks the calling worker while more than {@code highWater} bytes are queued for this
+     * connection, until at most {@code lowWater} remain. Fails if the client does not read
+     * within the timeout or the connection is closed.
+     */
+    void awaitDrain(long highWater, long lowWater, long timeoutMs) throws IOException {
+        if (pendingBytes.get() <= highWater) return;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (drainLock) {
+            drainWaiter = true;
+            try {
+                while (pendingBytes.get() > lowWater) {
+                    if (closed.get()) throw new IOException("连接已关闭");
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) throw new IOException("客户端读取超时");
+                    drainLock.wait(left);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("等待发送时被中断");
+            } finally {
+                drainWaiter = false;
+            }
+        }
+    }
+
+    private void signalDrain() {
+        if (!drainWaiter) return;
+        synchronized (drainLock) { drainLock.notifyAll(); }
+    }
+
+    /**
+     * Writes as much queued response data as the socket accepts.
+     * Returns true when nothing is left to write.
+     */
+    boolean flush() throws IOException {
+        ByteBuffer head;
+        try {
+            while ((head = outbound.peek()) != null) {
+                pendingBytes.addAndGet(-channel.write(head));
+                if (head.hasRemaining()) return false;
+                outbound.poll();
+            }
+            return true;
+        } finally {
+            signalDrain();
+        }
+    }
+
+    boolean hasOutput() {
+        return !outbound.isEmpty();
+    }
+
+    void markInputClosed() {
+        inputClosed = true;
+        if (receiving != null) {
+            // the peer stopped sending mid-upload; answer the request with an error
+            receiving.abort("上传未完成");
+            receiving = null;
+            frameLeft = 0;
+        }
+    }
+
+    boolean isInputClosed() { return inputClosed; }
+
+    /**
+     * Closes the channel; returns true only for the call that actually closed it.
+     */
+    boolean close() {
+        if (!closed.compareAndSet(false, true)) return false;
+        try { channel.close(); } catch (IOException ignored) {}
+        synchronized (this) {
+            for (Incoming in : lines) if (in.upload != null) in.upload.delete();
+        }
+        signalDrain();
+        return true;
+    }
+}
@@ -0,0 +1,383 @@
+package com.habms.server;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small JDBC connection pool.
+ * Callers get a proxy whose {@code close()} hands the physical connection back to the pool.
+ * Connections idle for a while are validated before reuse, the number of borrowed connections
+ * is capped at {@code maxSize}, and connections held longer than the leak threshold are reported.
+ * Each physical connection keeps a {@link StatementCache}, so {@code prepareStatement} on a
+ * borrowed connection usually returns an already compiled statement.
+ */
+public class ConnectionPool {
+    // idle connections younger than this are handed out without a validation round trip
+    private static final long VALIDATE_AFTER_MILLIS = 5_000L;
+    private static final long IDLE_TIMEOUT_MILLIS = 5 * 60_000L;
+
+    private final String url;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PhysicalConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> leased = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger physicalCount = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong borrowNanos = new AtomicLong();
+    private final AtomicLong maxBorrowNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong stmtHits = new AtomicLong();
+    private final AtomicLong stmtMisses = new AtomicLong();
+    private final AtomicLong stmtEvictions = new AtomicLong();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed = false;
+    // per-lane caps on borrowed connections; threads outside any lane are bound by maxSize only
+    private final Map<Lane, Quota> quotas = new EnumMap<>(Lane.class);
+
+    private static final class Quota {
+        final int limit;
+        final long waitMillis;
+        final Semaphore permits;
+        final AtomicLong timeouts = new AtomicLong();
+
+        Quota(int limit, long waitMillis) {
+            this.limit = limit;
+            this.waitMillis = waitMillis;
+            this.permits = new Semaphore(limit, true);
+        }
+    }
+
+    public ConnectionPool(String url, int minSize, int maxSize, long borrowTimeoutMillis, long leakThresholdMillis, int statementCacheSize) throws SQLException {
+        this.url = url;
+        this.minSize = Math.max(0, minSize);
+        this.maxSize = Math.max(1, Math.max(minSize, maxSize));
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(this.maxSize, true);
+        for (int i = 0; i < this.minSize; i++) idle.offerLast(openPhysical());
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "habms-db-pool");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeeping, 10, 10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Caps the connections that threads of {@code lane} hold at once. A thread over its cap waits
+     * up to {@code waitMillis} for a connection of its own lane before it competes for the pool.
+     * Set up before the pool is shared.
+     */
+    void limit(Lane lane, int maxConnections, long waitMillis) {
+        quotas.put(lane, new Quota(Math.max(1, Math.min(maxConnections, maxSize)), waitMillis));
+    }
+
+    /**
+     * Borrows a connection, waiting at most the borrow timeout when all connections are in use.
+     * Closing the returned connection gives it back to the pool. A thread that already holds a
+     * connection of its lane does not wait for the lane's quota: if none is free it fails at once,
+     * since it may be the one holding the quota it would wait for.
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("连接池已关闭");
+        long start = System.nanoTime();
+        Lane lane = Lane.current();
+        Quota quota = lane == null ? null : quotas.get(lane);
+        if (quota != null) {
+            boolean nested = holdsConnection(quota);
+            if (!acquire(quota.permits, nested ? 0 : quota.waitMillis)) {
+                quota.timeouts.incrementAndGet();
+                if (nested) throw new SQLTransientConnectionException("同一线程重复借用数据库连接，" + lane.key + " 配额 " + quota.limit + " 已用完", "08001");
+                throw new SQLTransientConnectionException("获取数据库连接超时 (" + lane.key + " 配额 " + quota.limit + ")", "08001");
+            }
+        }
+        boolean acquired;
+        try {
+            acquired = acquire(permits, borrowTimeoutMillis);
+        } catch (SQLException ex) {
+            if (quota != null) quota.permits.release();
+            throw ex;
+        }
+        if (!acquired) {
+            if (quota != null) quota.permits.release();
+            timeouts.incrementAndGet();
+            throw new SQLTransientConnectionException("获取数据库连接超时 (" + borrowTimeoutMillis + "ms)", "08001");
+        }
+        try {
+            PhysicalConnection physical = takeIdle();
+            if (physical == null) physical = openPhysical();
+            PooledConnection pc = new PooledConnection(physical, quota);
+            leased.add(pc);
+            long elapsed = System.nanoTime() - start;
+            borrows.incrementAndGet();
+            borrowNanos.addAndGet(elapsed);
+            maxBorrowNanos.accumulateAndGet(elapsed, Math::max);
+            return pc.proxy;
+        } catch (SQLException | RuntimeException ex) {
+            permits.release();
+            if (quota != null) quota.permits.release();
+            throw ex;
+        }
+    }
+
+    private boolean holdsConnection(Quota quota) {
+        Thread me = Thread.currentThread();
+        for (PooledConnection pc : leased) {
+            if (pc.quota == quota && pc.thread == me) return true;
+        }
+        return false;
+    }
+
+    private boolean acquire(Semaphore s, long timeoutMillis) throws SQLException {
+        waiters.incrementAndGet();
+        try {
+            return s.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("获取数据库连接被中断", "08001", ex);
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long n = borrows.get();
+        m.put("active", leased.size());
+        m.put("idle", idle.size());
+        m.put("total", physicalCount.get());
+        m.put("minSize", minSize);
+        m.put("maxSize", maxSize);
+        m.put("waiters", waiters.get());
+        m.put("borrows", n);
+        m.put("avgBorrowMicros", n == 0 ? 0 : borrowNanos.get() / n / 1000);
+        m.put("maxBorrowMicros", maxBorrowNanos.get() / 1000);
+        m.put("timeouts", timeouts.get());
+        m.put("leaksDetected", leaks.get());
+        m.put("discarded", discarded.get());
+        long hits = stmtHits.get(), lookups = hits + stmtMisses.get();
+        m.put("stmtCacheSize", statementCacheSize);
+        m.put("stmtCacheHits", hits);
+        m.put("stmtCacheMisses", lookups - hits);
+        m.put("stmtCacheEvictions", stmtEvictions.get());
+        m.put("stmtCacheHitRatio", lookups == 0 ? 0.0 : Math.round(hits * 1000.0 / lookups) / 1000.0);
+        Map<String, Object> lanes = new LinkedHashMap<>();
+        quotas.forEach((lane, q) -> {
+            Map<String, Object> l = new LinkedHashMap<>();
+            l.put("limit", q.limit);
+            l.put("active", q.limit - q.permits.availablePermits());
+            l.put("waiters", q.permits.getQueueLength());
+            l.put("timeouts", q.timeouts.get());
+            lanes.put(lane.key, l);
+        });
+        m.put("lanes", lanes);
+        return m;
+    }
+
+    /**
+     * Closes idle connections and stops housekeeping. Borrowed connections are closed when returned.
+     */
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PhysicalConnection pc;
+        while ((pc = idle.pollFirst()) != null) closePhysical(pc);
+    }
+
+    private PhysicalConnection takeIdle() {
+        PhysicalConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - pc.idleSince < VALIDATE_AFTER_MILLIS || isValid(pc.connection)) return pc;
+            discarded.incrementAndGet();
+            closePhysical(pc);
+        }
+        return null;
+    }
+
+    private boolean isValid(Connection c) {
+        try {
+            return c.isValid(2);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private PhysicalConnection openPhysical() throws SQLException {
+        Connection c = DriverManager.getConnection(url);
+        physicalCount.incrementAndGet();
+        StatementCache cache = statementCacheSize > 0 ? new StatementCache(statementCacheSize, stmtHits, stmtMisses, stmtEvictions) : null;
+        return new PhysicalConnection(c, cache);
+    }
+
+    private void closePhysical(PhysicalConnection pc) {
+        physicalCount.decrementAndGet();
+        if (pc.statements != null) pc.statements.close();
+        try { pc.connection.close(); } catch (SQLException ignored) {}
+    }
+
+    private void release(PooledConnection pc) {
+        leased.remove(pc);
+        PhysicalConnection holder = pc.holder;
+        Connection physical = holder.connection;
+        boolean reusable = !closed;
+        pc.closeStatements();
+        if (holder.statements != null) holder.statements.releaseAll();
+        try {
+            if (!physical.getAutoCommit()) {
+                // never leak an unfinished transaction into the next borrower
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            physical.clearWarnings();
+        } catch (SQLException ex) {
+            reusable = false;
+        }
+        if (reusable) {
+            holder.idleSince = System.currentTimeMillis();
+            idle.offerFirst(holder);
+        } else {
+            discarded.incrementAndGet();
+            closePhysical(holder);
+        }
+        permits.release();
+        if (pc.quota != null) pc.quota.permits.release();
+    }
+
+    private void housekeeping() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection pc : leased) {
+            if (!pc.leakReported && now - pc.borrowedAt > leakThresholdMillis) {
+                pc.leakReported = true;
+                leaks.incrementAndGet();
+                System.err.println("数据库连接疑似泄漏: 线程 " + pc.borrower + " 已占用 " + (now - pc.borrowedAt) + "ms");
+            }
+        }
+        // shrink back towards minSize; oldest idle connections sit at the tail
+        List<PhysicalConnection> expired = new ArrayList<>();
+        Iterator<PhysicalConnection> it = idle.descendingIterator();
+        int keep = idle.size();
+        while (it.hasNext() && keep > minSize) {
+            PhysicalConnection pc = it.next();
+            if (now - pc.idleSince > IDLE_TIMEOUT_MILLIS && idle.remove(pc)) { expired.add(pc); keep--; }
+        }
+        for (PhysicalConnection pc : expired) closePhysical(pc);
+    }
+
+    private static final class PhysicalConnection {
+        final Connection connection;
+        final StatementCache statements;
+        volatile long idleSince = System.currentTimeMillis();
+
+        PhysicalConnection(Connection connection, StatementCache statements) {
+            this.connection = connection;
+            this.statements = statements;
+        }
+    }
+
+    /**
+     * Borrowed view of a physical connection; {@code close()} returns it to the pool.
+     */
+    private final class PooledConnection implements InvocationHandler {
+        final PhysicalConnection holder;
+        final Quota quota;
+        final Connection physical;
+        final Connection proxy;
+        final long borrowedAt = System.currentTimeMillis();
+        final Thread thread = Thread.currentThread();
+        final String borrower = thread.getName();
+        volatile boolean leakReported = false;
+        private boolean returned = false;
+        // statements the borrower did not close itself; closing the physical connection used to do that
+        private final List<Statement> statements = new ArrayList<>();
+
+        PooledConnection(PhysicalConnection holder, Quota quota) {
+            this.holder = holder;
+            this.quota = quota;
+            this.physical = holder.connection;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) { returned = true; release(this); }
+                    return null;
+                case "isClosed":
+                    return returned || physical.isClosed();
+                case "equals":
+                    return p == args[0];
+                case "hashCode":
+                    return System.identityHashCode(p);
+                case "toString":
+                    return "Pooled[" + physical + "]";
+                case "prepareStatement":
+                    if (returned) throw new SQLException("连接已归还连接池");
+                    PreparedStatement cached = prepareCached(method, args);
+                    if (cached != null) return cached;
+                    break;
+                default:
+                    if (returned) throw new SQLException("连接已归还连接池");
+            }
+            Object result;
+            try {
+                result = method.invoke(physical, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+            if (result instanceof Statement) statements.add((Statement) result);
+            return result;
+        }
+
+        // prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys) go through the cache
+        private PreparedStatement prepareCached(Method method, Object[] args) throws SQLException {
+            if (holder.statements == null) return null;
+            String sql = (String) args[0];
+            if (args.length == 1) return holder.statements.borrow(sql, () -> physical.prepareStatement(sql));
+            if (args.length == 2 && method.getParameterTypes()[1] == int.class) {
+                int keys = (Integer) args[1];
+                return holder.statements.borrow(sql + "\u0000" + keys, () -> physical.prepareStatement(sql, keys));
+            }
+            return null;
+        }
+
+        void closeStatements() {
+            for (Statement st : statements) {
+                try { st.close(); } catch (SQLException ignored) {}
+            }
+            statements.clear();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.habms.server;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Bulk dumps for the data warehouse feed: doctors, schedules and appointments as gzip-compressed
+ * CSV or NDJSON, written straight from a JDBC cursor. An incremental dump holds the rows whose
+ * updated_at is at or after a given time, plus the appointments deleted since then. The tables
+ * are dumped in parallel, each on its own pooled connection, into temporary files that the
+ * caller sends and deletes.
+ */
+final class DataDump {
+    enum Format {
+        CSV("csv"), NDJSON("ndjson");
+
+        final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        static Format of(String name) {
+            for (Format f : values()) {
+                if (f.extension.equalsIgnoreCase(name)) return f;
+            }
+            return null;
+        }
+    }
+
+    enum Table {
+        DOCTORS("doctors", "doctors", "id,name,dept,info,updated_at", "updated_at", "id"),
+        SCHEDULES("schedules", "schedules", "id,doctor_id,start_time,end_time,note,capacity,booked,updated_at", "updated_at", "id"),
+        APPOINTMENTS("appointments", "appointments", "id,doctor_id,schedule_id,patient_username,patient_name,appt_time,updated_at", "updated_at", "id"),
+        // only in incremental dumps: rows removed since then, e.g. cancelled appointments
+        DELETIONS("deletions", "deleted_rows", "table_name,row_id,deleted_at", "deleted_at", "deleted_at");
+
+        final String name;
+        final String[] columns;
+        private final String sql;
+        private final String changedColumn;
+        private final String order;
+
+        Table(String name, String table, String columns, String changedColumn, String order) {
+            this.name = name;
+            this.columns = columns.split(",");
+            this.sql = "SELECT " + columns + " FROM " + table;
+            this.changedColumn = changedColumn;
+            this.order = " ORDER BY " + order;
+        }
+
+        String query(boolean incremental) {
+            return incremental ? sql + " WHERE " + changedColumn + ">=?" + order : sql + order;
+        }
+    }
+
+    /**
+     * Receives the rows of a table from the cursor, positioned on the current row.
+     */
+    interface RowWriter {
+        void row(ResultSet rs) throws SQLException, IOException;
+    }
+
+    /**
+     * One dumped table: the gzip file and the number of rows in it.
+     */
+    static final class Part {
+        final Table table;
+        final String filename;
+        final Path file;
+        final long rows;
+
+        Part(Table table, String filename, Path file, long rows) {
+            this.table = table;
+            this.filename = filename;
+            this.file = file;
+            this.rows = rows;
+        }
+    }
+
+    private static final JsonFactory json = new JsonFactory();
+    private static final ExecutorService pool = Executors.newFixedThreadPool(ServerConfig.DUMP_THREADS, Lane.BULK.threads("habms-dump-"));
+
+    private DataDump() {}
+
+    /**
+     * Dumps the given tables in parallel; {@code since} null means a full dump. On failure no
+     * temporary file is left behind.
+     */
+    static List<Part> dump(List<Table> tables, Format format, LocalDateTime since) throws SQLException, IOException {
+        List<Future<Part>> futures = new ArrayList<>();
+        for (Table t : tables) futures.add(pool.submit(() -> dumpTable(t, format, since)));
+        List<Part> parts = new ArrayList<>();
+        Exception failure = null;
+        // wait for every task, also after a failure, so that all their files can be deleted
+        for (Future<Part> f : futures) {
+            try {
+                parts.add(f.get());
+            } catch (ExecutionException ex) {
+                if (failure == null) failure = ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                if (failure == null) failure = new IOException("导出被中断", ex);
+            }
+        }
+        if (failure == null) return parts;
+        delete(parts);
+        if (failure instanceof SQLException) throw (SQLException) failure;
+        if (failure instanceof IOException) throw (IOException) failure;
+        throw new IOException(failure);
+    }
+
+    static void delete(List<Part> parts) {
+        for (Part p : parts) {
+            try { Files.deleteIfExists(p.file); } catch (IOException ignore) {}
+        }
+    }
+
+    private static Part dumpTable(Table table, Format format, LocalDateTime since) throws SQLException, IOException {
+        Path file = Files.createTempFile("habms-dump-", ".gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file), FileTransfer.CHUNK_BYTES)) {
+            long rows = format == Format.CSV ? csv(table, since, out) : ndjson(table, since, out);
+            return new Part(table, table.name + "." + format.extension + ".gz", file, rows);
+        } catch (SQLException | IOException | RuntimeException ex) {
+            Files.deleteIfExists(file);
+            throw ex;
+        }
+    }
+
+    // RFC 4180: a header line, fields quoted only when they contain a comma, quote or line break
+    private static long csv(Table table, LocalDateTime since, OutputStream out) throws SQLException, IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), FileTransfer.CHUNK_BYTES);
+        w.write(String.join(",", table.columns));
+        w.write("\r\n");
+        long rows = Database.dumpTable(table, since, rs -> {
+            for (int i = 0; i < table.columns.length; i++) {
+                if (i > 0) w.write(',');
+                String v = text(rs.getObject(i + 1));
+                if (v == null) continue;
+                if (v.indexOf(',') >= 0 || v.indexOf('"') >= 0 || v.indexOf('\n') >= 0 || v.indexOf('\r') >= 0) {
+                    w.write('"');
+                    w.write(v.replace("\"", "\"\""));
+                    w.write('"');
+                } else {
+                    w.write(v);
+                }
+            }
+            w.write("\r\n");
+        });
+        w.flush();
+        return rows;
+    }
+
+    // one JSON object per line; numbers stay numbers and SQL NULL becomes null
+    private static long ndjson(Table table, LocalDateTime since, OutputStream out) throws SQLException, IOException {
+        JsonGenerator g = json.createGenerator(out);
+        g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // rows are separated by the newline below, not by Jackson's default space
+        g.setRootValueSeparator(null);
+        long rows = Database.dumpTable(table, since, rs -> {
+            g.writeStartObject();
+            for (int i = 0; i < table.columns.length; i++) {
+                Object v = rs.getObject(i + 1);
+                g.writeFieldName(table.columns[i]);
+                if (v instanceof Number) g.writeNumber(((Number) v).longValue());
+                else if (v == null) g.writeNull();
+                else g.writeString(text(v));
+            }
+            g.writeEndObject();
+            g.writeRaw('\n');
+        });
+        g.flush();
+        return rows;
+    }
+
+    private static String text(Object v) {
+        if (v == null) return null;
+        // JDBC timestamp escape format, as in the listings: 2024-05-01 09:30:00.0
+        if (v instanceof Timestamp) return v.toString();
+        return String.valueOf(v);
+    }
+}
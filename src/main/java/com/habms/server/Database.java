@@ -1,86 +1,54 @@
 package com.habms.server;
 
+import java.io.IOException;
 import java.sql.*;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 public class Database {
-    private static final String DB_URL = "jdbc:derby:habmsdb;create=true";
+    private static final String DB_URL = ServerConfig.DB_URL;
+    private static ConnectionPool pool;
+    private static final SlotInventory inventory = new SlotInventory();
+    private static final ApptRollup rollup = new ApptRollup();
+    private static final ScheduleIndex schedules = new ScheduleIndex();
+    private static final DoctorSearchIndex searchIndex = new DoctorSearchIndex();
+    private static final DoctorCatalog doctors = new DoctorCatalog(searchIndex);
+
+    private static Connection getConnection() throws SQLException {
+        return pool.getConnection();
+    }
 
     public static void init() throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            Statement st = conn.createStatement();
-            // users: role (ADMIN/PATIENT), fullname, idcard, phone
-            st.executeUpdate("CREATE TABLE users (id INT PRIMARY KEY GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1), username VARCHAR(50) UNIQUE, password VARCHAR(100), role VARCHAR(20), fullname VARCHAR(100), idcard VARCHAR(50), phone VARCHAR(50))");
-        } catch (SQLException e) {
-            if (!tableExists(e)) throw e;
-        }
-        // If users table existed previously with smaller password column, try to enlarge it
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            Statement st = conn.createStatement();
-            st.executeUpdate("ALTER TABLE users ALTER COLUMN password SET DATA TYPE VARCHAR(100)");
-        } catch (SQLException ignored) {
-            // ignore if cannot alter (e.g., table didn't exist or already correct)
-        }
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            Statement st = conn.createStatement();
-            // doctors
-            st.executeUpdate("CREATE TABLE doctors (id INT PRIMARY KEY GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1), name VARCHAR(100), dept VARCHAR(100), info VARCHAR(255))");
-        } catch (SQLException e) {
-            if (!tableExists(e)) throw e;
-        }
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            Statement st = conn.createStatement();
-            // appointments
-            st.executeUpdate("CREATE TABLE appointments (id INT PRIMARY KEY GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1), doctor_id INT, patient_username VARCHAR(50), patient_name VARCHAR(100), appt_time TIMESTAMP)");
-        } catch (SQLException e) {
-            if (!tableExists(e)) throw e;
-        }
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            Statement st = conn.createStatement();
-            // schedules: doctor_id + start_time + end_time + note + capacity
-            st.executeUpdate("CREATE TABLE schedules (id INT PRIMARY KEY GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1), doctor_id INT, start_time TIMESTAMP, end_time TIMESTAMP, note VARCHAR(255), capacity INT)");
-        } catch (SQLException e) {
-            if (!tableExists(e)) throw e;
-        }
-        // Try to migrate old schema: if 'slot_time' exists, add start_time/end_time and copy slot_time -> start_time, end_time = slot_time + 1 hour
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            Statement st = conn.createStatement();
-            // attempt to add start_time/end_time if missing
-            try { st.executeUpdate("ALTER TABLE schedules ADD COLUMN start_time TIMESTAMP"); } catch (SQLException ignore) {}
-            try { st.executeUpdate("ALTER TABLE schedules ADD COLUMN end_time TIMESTAMP"); } catch (SQLException ignore) {}
-            try { st.executeUpdate("ALTER TABLE schedules ADD COLUMN capacity INT"); } catch (SQLException ignore) {}
-            // if slot_time exists, migrate rows
-            try {
-                ResultSet rs = st.executeQuery("SELECT id, slot_time FROM schedules");
-                java.util.List<Integer> ids = new java.util.ArrayList<>();
-                java.util.List<Timestamp> slots = new java.util.ArrayList<>();
-                while (rs.next()) { ids.add(rs.getInt(1)); slots.add(rs.getTimestamp(2)); }
-                PreparedStatement upd = conn.prepareStatement("UPDATE schedules SET start_time=?, end_time=?, capacity=? WHERE id=?");
-                for (int i=0;i<ids.size();i++) {
-                    Timestamp s = slots.get(i);
-                    if (s==null) continue;
-                    Timestamp end = new Timestamp(s.getTime() + 3600L*1000L); // +1 hour
-                    upd.setTimestamp(1, s);
-                    upd.setTimestamp(2, end);
-                    upd.setInt(3, 1);
-                    upd.setInt(4, ids.get(i));
-                    upd.executeUpdate();
-                }
-            } catch (SQLException ignore) {
-                // slot_time might not exist, ignore
-            }
-        } catch (SQLException ignored) {
-            // ignore migration failures
-        }
+        derbyDefault("derby.language.sequence.preallocator", ServerConfig.DB_IDENTITY_PREALLOCATE);
+        pool = new ConnectionPool(DB_URL, ServerConfig.DB_POOL_MIN, ServerConfig.DB_POOL_MAX,
+                ServerConfig.DB_BORROW_TIMEOUT_MS, ServerConfig.DB_LEAK_THRESHOLD_MS, ServerConfig.DB_STATEMENT_CACHE);
+        pool.limit(Lane.INTERACTIVE, ServerConfig.DB_QUOTA_INTERACTIVE, ServerConfig.DB_BORROW_TIMEOUT_MS);
+        pool.limit(Lane.BOOKING, ServerConfig.DB_QUOTA_BOOKING, ServerConfig.DB_BORROW_TIMEOUT_MS);
+        pool.limit(Lane.BULK, ServerConfig.DB_QUOTA_BULK, ServerConfig.DB_QUOTA_BULK_WAIT_MS);
+        ServerMetrics.register("dbPool", pool::stats);
+        try (Connection conn = getConnection()) {
+            SchemaMigrator.migrate(conn);
+            inventory.load(conn);
+            rollup.load(conn);
+            schedules.load(conn);
+        }
+        ServerMetrics.register("inventory", inventory::stats);
+        ServerMetrics.register("rollup", rollup::stats);
+        ServerMetrics.register("scheduleIndex", schedules::stats);
         // insert sample data and admin if empty
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
+        try (Connection conn = getConnection()) {
             Statement st = conn.createStatement();
             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM doctors");
             rs.next();
@@ -94,85 +62,135 @@ public class Database {
                 String hashed = hashPassword("admin");
                 st.executeUpdate("INSERT INTO users(username,password,role,fullname,idcard,phone) VALUES('admin','"+hashed+"','ADMIN','系统管理员','000000000000000000','')");
             }
+            doctors.load(conn);
+        }
+        ServerMetrics.register("doctorCatalog", doctors::stats);
+        ServerMetrics.register("doctorSearch", searchIndex::stats);
+    }
+
+    // Derby reads this when it boots the database, so before the first connection; a -Dderby... setting wins
+    private static void derbyDefault(String property, int value) {
+        if (System.getProperty(property) == null) System.setProperty(property, String.valueOf(value));
+    }
+
+    private static DoctorCatalog.Snapshot doctorCatalog() throws SQLException {
+        DoctorCatalog.Snapshot s = doctors.current();
+        if (s != null) return s;
+        try (Connection conn = getConnection()) {
+            return doctorCatalog(conn);
         }
     }
 
+    // for callers that already hold a connection, which must not borrow a second one from their lane's quota
+    private static DoctorCatalog.Snapshot doctorCatalog(Connection conn) throws SQLException {
+        DoctorCatalog.Snapshot s = doctors.current();
+        if (s != null) return s;
+        return doctors.load(conn);
+    }
+
+    private static List<Map<String, String>> rows(List<DoctorCatalog.Doctor> found) {
+        List<Map<String, String>> list = new ArrayList<>(found.size());
+        for (DoctorCatalog.Doctor d : found) list.add(d.row);
+        return list;
+    }
+
+    // served from the doctor catalog; rows are shared and must not be modified
     public static List<Map<String, String>> getDoctorsList() throws SQLException {
-        List<Map<String, String>> list = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("SELECT id,name,dept,info FROM doctors");
-            ResultSet rs = ps.executeQuery();
+        return doctorCatalog().rows();
+    }
+
+    // keyset pagination over (appt_time, id): the range start is an index start key,
+    // the OR only drops rows at the boundary time that the previous page already returned
+    private static final String APPT_KEYSET = " a.appt_time>=? AND a.appt_time<? AND (a.appt_time>? OR a.id>?) ORDER BY a.appt_time, a.id FETCH FIRST ? ROWS ONLY";
+    private static final LocalDateTime MIN_TIME = LocalDateTime.of(1900, 1, 1, 0, 0);
+    private static final LocalDateTime MAX_TIME = LocalDateTime.of(9999, 12, 31, 0, 0);
+
+    private interface RowReader {
+        Map<String, String> read(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Receives the rows of a listing one at a time, e.g. to stream them into a response.
+     */
+    public interface RowSink {
+        void accept(Map<String, String> row) throws IOException;
+    }
+
+    // binds APPT_KEYSET starting at parameter index i, passes one page of rows to the sink
+    // and returns the cursor of the next page (null on the last page)
+    private static String appointmentPage(PreparedStatement ps, int i, Page.Query q, RowReader reader, RowSink sink) throws SQLException, IOException {
+        LocalDateTime from = q.from == null ? MIN_TIME : q.from;
+        LocalDateTime lower = q.afterTime != null && q.afterTime.isAfter(from) ? q.afterTime : from;
+        ps.setTimestamp(i, Timestamp.valueOf(lower));
+        ps.setTimestamp(i + 1, Timestamp.valueOf(q.to == null ? MAX_TIME : q.to));
+        ps.setTimestamp(i + 2, Timestamp.valueOf(q.afterTime == null ? lower : q.afterTime));
+        ps.setInt(i + 3, q.afterTime == null ? 0 : q.afterId);
+        ps.setInt(i + 4, q.limit + 1);
+        int rows = 0;
+        LocalDateTime lastTime = null;
+        int lastId = 0;
+        try (ResultSet rs = ps.executeQuery()) {
             while (rs.next()) {
-                Map<String, String> m = new HashMap<>();
-                m.put("id", String.valueOf(rs.getInt("id")));
-                m.put("name", rs.getString("name"));
-                m.put("dept", rs.getString("dept"));
-                m.put("info", rs.getString("info"));
-                list.add(m);
+                if (rows == q.limit) return Page.cursor(lastTime, lastId);
+                lastTime = rs.getTimestamp("appt_time").toLocalDateTime();
+                lastId = rs.getInt("id");
+                sink.accept(reader.read(rs));
+                rows++;
             }
         }
-        return list;
+        return null;
     }
 
-    public static List<Map<String, String>> getAppointmentsList(int doctorId) throws SQLException {
-        List<Map<String, String>> list = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("SELECT id,patient_username,patient_name,appt_time FROM appointments WHERE doctor_id=? ORDER BY appt_time");
+    public static String getAppointmentsList(int doctorId, Page.Query q, RowSink sink) throws SQLException, IOException {
+        try (Connection conn = getConnection()) {
+            PreparedStatement ps = conn.prepareStatement("SELECT a.id,a.patient_username,a.patient_name,a.appt_time FROM appointments a WHERE a.doctor_id=? AND" + APPT_KEYSET);
             ps.setInt(1, doctorId);
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
+            return appointmentPage(ps, 2, q, rs -> {
                 Map<String, String> m = new HashMap<>();
                 m.put("id", String.valueOf(rs.getInt("id")));
                 m.put("patient_username", rs.getString("patient_username"));
                 m.put("patient_name", rs.getString("patient_name"));
                 m.put("appt_time", rs.getTimestamp("appt_time").toString());
-                list.add(m);
-            }
+                return m;
+            }, sink);
         }
-        return list;
     }
 
+    // served from the schedule index and the slot inventory; neither needs a database round trip
     public static List<Map<String, String>> getSchedulesList(int doctorId) throws SQLException {
         List<Map<String, String>> list = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("SELECT id,start_time,end_time,note,capacity FROM schedules WHERE doctor_id=? ORDER BY start_time");
-            ps.setInt(1, doctorId);
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                Map<String, String> m = new HashMap<>();
-                m.put("id", String.valueOf(rs.getInt("id")));
-                Timestamp start = rs.getTimestamp("start_time");
-                Timestamp end = rs.getTimestamp("end_time");
-                m.put("start_time", start==null?"":start.toString());
-                m.put("end_time", end==null?"":end.toString());
-                m.put("note", rs.getString("note"));
-                int capacity = rs.getInt("capacity");
-                // compute current booked count in interval [start, end)
-                PreparedStatement pc = conn.prepareStatement("SELECT COUNT(*) FROM appointments WHERE doctor_id=? AND appt_time>=? AND appt_time<?");
-                pc.setInt(1, doctorId);
-                pc.setTimestamp(2, start);
-                pc.setTimestamp(3, end);
-                ResultSet rc = pc.executeQuery(); rc.next();
-                int booked = rc.getInt(1);
-                m.put("capacity", String.valueOf(capacity));
-                m.put("booked", String.valueOf(booked));
-                m.put("available", String.valueOf(Math.max(0, capacity - booked)));
-                list.add(m);
-            }
-        }
+        for (ScheduleIndex.Slot slot : schedules.forDoctor(doctorId)) list.add(scheduleRow(slot));
         return list;
     }
 
-    // in-memory locks per schedule id to avoid race conditions in this JVM
-    private static final java.util.concurrent.ConcurrentHashMap<Integer, Object> scheduleLocks = new java.util.concurrent.ConcurrentHashMap<>();
+    private static Map<String, String> scheduleRow(ScheduleIndex.Slot slot) {
+        Map<String, String> m = new HashMap<>();
+        m.put("id", String.valueOf(slot.id));
+        m.put("start_time", Timestamp.valueOf(slot.start).toString());
+        m.put("end_time", Timestamp.valueOf(slot.end).toString());
+        m.put("note", slot.note);
+        int available = available(slot);
+        m.put("capacity", String.valueOf(slot.capacity));
+        m.put("booked", String.valueOf(slot.capacity - available));
+        m.put("available", String.valueOf(available));
+        return m;
+    }
+
+    public static String getSchedulesList(int doctorId, Page.Query q, RowSink sink) throws IOException {
+        List<ScheduleIndex.Slot> slots = schedules.range(doctorId, q.from, q.to, q.afterTime, q.afterId, q.limit + 1);
+        for (int i = 0; i < slots.size() && i < q.limit; i++) sink.accept(scheduleRow(slots.get(i)));
+        if (slots.size() <= q.limit) return null;
+        ScheduleIndex.Slot last = slots.get(q.limit - 1);
+        return Page.cursor(last.start, last.id);
+    }
 
-    private static boolean tableExists(SQLException e) {
-        // Derby throws X0Y32: Table/View already exists in schema
-        return e.getSQLState() != null && e.getSQLState().startsWith("X0Y");
+    private static int available(ScheduleIndex.Slot slot) {
+        int left = inventory.available(slot.id);
+        return left < 0 ? slot.capacity : Math.min(left, slot.capacity);
     }
 
     public static boolean checkLogin(String username, String password) throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
+        try (Connection conn = getConnection()) {
             PreparedStatement ps = conn.prepareStatement("SELECT password FROM users WHERE username=?");
             ps.setString(1, username);
             ResultSet rs = ps.executeQuery();
@@ -198,7 +216,7 @@ public class Database {
     }
 
     public static String getUserRole(String username) throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
+        try (Connection conn = getConnection()) {
             PreparedStatement ps = conn.prepareStatement("SELECT role FROM users WHERE username=?");
             ps.setString(1, username);
             ResultSet rs = ps.executeQuery();
@@ -208,7 +226,7 @@ public class Database {
     }
 
     public static boolean registerPatient(String username, String password, String fullname, String idcard, String phone) throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
+        try (Connection conn = getConnection()) {
             PreparedStatement check = conn.prepareStatement("SELECT COUNT(*) FROM users WHERE username=?");
             check.setString(1, username);
             ResultSet rs = check.executeQuery(); rs.next();
@@ -221,7 +239,7 @@ public class Database {
     }
 
     public static boolean deletePatient(String username) throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
+        try (Connection conn = getConnection()) {
             PreparedStatement ps = conn.prepareStatement("DELETE FROM users WHERE username=? AND role='PATIENT'");
             ps.setString(1, username);
             return ps.executeUpdate() > 0;
@@ -229,7 +247,7 @@ public class Database {
     }
 
     public static boolean updatePatient(String username, String newPassword, String newFullname, String newPhone) throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
+        try (Connection conn = getConnection()) {
             PreparedStatement ps = conn.prepareStatement("UPDATE users SET password=?, fullname=?, phone=? WHERE username=? AND role='PATIENT'");
             ps.setString(1, hashPassword(newPassword)); ps.setString(2, newFullname); ps.setString(3, newPhone); ps.setString(4, username);
             return ps.executeUpdate() > 0;
@@ -257,22 +275,18 @@ public class Database {
 
     public static String listDoctors() throws SQLException {
         StringBuilder sb = new StringBuilder();
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("SELECT id,name,dept,info FROM doctors");
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                sb.append(rs.getInt("id")).append("|")
-                  .append(rs.getString("name")).append("|")
-                  .append(rs.getString("dept")).append("|")
-                  .append(rs.getString("info")).append("\n");
-            }
+        for (DoctorCatalog.Doctor d : doctorCatalog().doctors) {
+            sb.append(d.id).append("|")
+              .append(d.name).append("|")
+              .append(d.dept).append("|")
+              .append(d.info).append("\n");
         }
         return sb.toString();
     }
 
     public static String listAppointments(int doctorId) throws SQLException {
         StringBuilder sb = new StringBuilder();
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
+        try (Connection conn = getConnection()) {
             PreparedStatement ps = conn.prepareStatement("SELECT id,patient_username,patient_name,appt_time FROM appointments WHERE doctor_id=? ORDER BY appt_time");
             ps.setInt(1, doctorId);
             ResultSet rs = ps.executeQuery();
@@ -287,84 +301,162 @@ public class Database {
         return sb.toString();
     }
 
-    public static List<Map<String, String>> getAppointmentsForPatient(String patientUsername) throws SQLException {
-        List<Map<String, String>> list = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("SELECT id,doctor_id,patient_username,patient_name,appt_time FROM appointments WHERE patient_username=? ORDER BY appt_time");
+    public static String getAppointmentsForPatient(String patientUsername, Page.Query q, RowSink sink) throws SQLException, IOException {
+        try (Connection conn = getConnection()) {
+            PreparedStatement ps = conn.prepareStatement("SELECT a.id,a.doctor_id,a.patient_username,a.patient_name,a.appt_time FROM appointments a WHERE a.patient_username=? AND" + APPT_KEYSET);
             ps.setString(1, patientUsername);
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
+            return appointmentPage(ps, 2, q, rs -> {
                 Map<String, String> m = new HashMap<>();
                 m.put("id", String.valueOf(rs.getInt("id")));
                 m.put("doctor_id", String.valueOf(rs.getInt("doctor_id")));
                 m.put("patient_username", rs.getString("patient_username"));
                 m.put("patient_name", rs.getString("patient_name"));
                 m.put("appt_time", rs.getTimestamp("appt_time").toString());
-                list.add(m);
-            }
+                return m;
+            }, sink);
         }
-        return list;
     }
 
     public static int findDoctorIdByName(String name) throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("SELECT id FROM doctors WHERE name = ?");
-            ps.setString(1, name);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) return rs.getInt(1);
-            return -1;
+        return doctorCatalog().idByName(name);
+    }
+
+    public static String listAllAppointments(Page.Query q, RowSink sink) throws SQLException, IOException {
+        try (Connection conn = getConnection()) {
+            PreparedStatement ps = conn.prepareStatement("SELECT" + APPT_ALL_COLUMNS + "WHERE" + APPT_KEYSET);
+            return appointmentPage(ps, 1, q, Database::appointmentRow, sink);
         }
     }
 
-    public static List<Map<String, String>> listAllAppointments() throws SQLException {
-        List<Map<String, String>> list = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("SELECT a.id,a.doctor_id,d.name as doctor_name,d.dept,a.patient_username,a.patient_name,a.appt_time FROM appointments a LEFT JOIN doctors d ON a.doctor_id=d.id ORDER BY a.appt_time");
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                Map<String, String> m = new HashMap<>();
-                m.put("id", String.valueOf(rs.getInt("id")));
-                m.put("doctor_id", String.valueOf(rs.getInt("doctor_id")));
-                m.put("doctor_name", rs.getString("doctor_name"));
-                m.put("dept", rs.getString("dept"));
-                m.put("patient_username", rs.getString("patient_username"));
-                m.put("patient_name", rs.getString("patient_name"));
-                m.put("appt_time", rs.getTimestamp("appt_time").toString());
-                list.add(m);
+    /**
+     * Streams the appointments in [from, to), optionally only those of one department, ordered by
+     * time. Rows come from a forward-only cursor and go to the sink one at a time, so the result
+     * is never held in memory; null bounds are open.
+     */
+    public static void exportAppointments(LocalDateTime from, LocalDateTime to, String dept, RowSink sink) throws SQLException, IOException {
+        exportAppointments(from, to, dept, null, sink);
+    }
+
+    /**
+     * As above, optionally only the appointments of one doctor.
+     */
+    static void exportAppointments(LocalDateTime from, LocalDateTime to, String dept, Integer doctorId, RowSink sink) throws SQLException, IOException {
+        try (Connection conn = getConnection()) {
+            PreparedStatement ps = conn.prepareStatement("SELECT" + APPT_ALL_COLUMNS + "WHERE a.appt_time>=? AND a.appt_time<?"
+                    + (dept == null ? "" : " AND d.dept=?") + (doctorId == null ? "" : " AND a.doctor_id=?") + " ORDER BY a.appt_time, a.id");
+            ps.setFetchSize(ServerConfig.EXPORT_FETCH_SIZE);
+            int i = 1;
+            ps.setTimestamp(i++, Timestamp.valueOf(from == null ? MIN_TIME : from));
+            ps.setTimestamp(i++, Timestamp.valueOf(to == null ? MAX_TIME : to));
+            if (dept != null) ps.setString(i++, dept);
+            if (doctorId != null) ps.setInt(i, doctorId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) sink.accept(appointmentRow(rs));
             }
         }
-        return list;
     }
 
+    /**
+     * Streams the rows of one dump table, only those changed at or after {@code since} unless it
+     * is null, from a forward-only cursor to the writer. Returns the number of rows.
+     */
+    static long dumpTable(DataDump.Table table, LocalDateTime since, DataDump.RowWriter writer) throws SQLException, IOException {
+        try (Connection conn = getConnection()) {
+            PreparedStatement ps = conn.prepareStatement(table.query(since != null));
+            ps.setFetchSize(ServerConfig.EXPORT_FETCH_SIZE);
+            if (since != null) ps.setTimestamp(1, Timestamp.valueOf(since));
+            long rows = 0;
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) { writer.row(rs); rows++; }
+            }
+            return rows;
+        }
+    }
+
+    private static final String APPT_ALL_COLUMNS = " a.id,a.doctor_id,d.name as doctor_name,d.dept,a.patient_username,a.patient_name,a.appt_time FROM appointments a LEFT JOIN doctors d ON a.doctor_id=d.id ";
+
+    private static Map<String, String> appointmentRow(ResultSet rs) throws SQLException {
+        Map<String, String> m = new HashMap<>();
+        m.put("id", String.valueOf(rs.getInt("id")));
+        m.put("doctor_id", String.valueOf(rs.getInt("doctor_id")));
+        m.put("doctor_name", rs.getString("doctor_name"));
+        m.put("dept", rs.getString("dept"));
+        m.put("patient_username", rs.getString("patient_username"));
+        m.put("patient_name", rs.getString("patient_name"));
+        m.put("appt_time", rs.getTimestamp("appt_time").toString());
+        return m;
+    }
+
+    // both reports read the rollup totals: one entry per doctor, independent of the appointment history
     public static java.util.Map<String, Integer> getAppointmentsCountByDept() throws SQLException {
         java.util.Map<String, Integer> map = new java.util.HashMap<>();
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("SELECT d.dept, COUNT(*) as cnt FROM appointments a JOIN doctors d ON a.doctor_id=d.id GROUP BY d.dept");
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                map.put(rs.getString("dept"), rs.getInt("cnt"));
-            }
+        for (DoctorCatalog.Doctor d : doctorCatalog().doctors) {
+            long n = rollup.total(d.id);
+            if (n > 0) map.merge(d.dept, (int) n, Integer::sum);
         }
         return map;
     }
 
     public static List<Map<String, String>> getDoctorWorkload() throws SQLException {
+        List<DoctorCatalog.Doctor> ranked = new ArrayList<>(doctorCatalog().doctors);
+        ranked.sort(java.util.Comparator.comparingLong((DoctorCatalog.Doctor d) -> rollup.total(d.id)).reversed());
         List<Map<String, String>> list = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("SELECT d.id,d.name,d.dept, COUNT(a.id) as cnt FROM doctors d LEFT JOIN appointments a ON a.doctor_id=d.id GROUP BY d.id,d.name,d.dept ORDER BY cnt DESC");
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                Map<String, String> m = new HashMap<>();
-                m.put("doctor_id", String.valueOf(rs.getInt("id")));
-                m.put("doctor_name", rs.getString("name"));
-                m.put("dept", rs.getString("dept"));
-                m.put("appointments", String.valueOf(rs.getInt("cnt")));
-                list.add(m);
-            }
+        for (DoctorCatalog.Doctor d : ranked) {
+            Map<String, String> m = new HashMap<>();
+            m.put("doctor_id", String.valueOf(d.id));
+            m.put("doctor_name", d.name);
+            m.put("dept", d.dept);
+            m.put("appointments", String.valueOf(rollup.total(d.id)));
+            list.add(m);
         }
         return list;
     }
 
+    static List<DoctorCatalog.Doctor> getDoctors() throws SQLException {
+        return doctorCatalog().doctors;
+    }
+
+    static DoctorCatalog.Doctor getDoctor(int id) throws SQLException {
+        return doctorCatalog().byId.get(id);
+    }
+
+    /**
+     * Appointments per doctor in [from, to) (whole hours, null bounds open), from the rollups.
+     */
+    static Map<Integer, Long> getAppointmentsPerDoctor(LocalDateTime from, LocalDateTime to) throws SQLException {
+        if (from == null && to == null) return rollup.totals();
+        try (Connection conn = getConnection()) {
+            return ApptRollup.totals(conn, from == null ? MIN_TIME : from, to == null ? MAX_TIME : to);
+        }
+    }
+
+    /**
+     * Appointments per department in every hour of [from, to) (whole hours), from the rollups.
+     * Departments are those the doctors have now.
+     */
+    static Map<LocalDateTime, Map<String, Integer>> getAppointmentsByDeptPerHour(LocalDateTime from, LocalDateTime to) throws SQLException {
+        Map<Integer, DoctorCatalog.Doctor> byId = doctorCatalog().byId;
+        Map<LocalDateTime, Map<String, Integer>> series = new java.util.LinkedHashMap<>();
+        rollup.hours(from, to, Database::getConnection).forEach((hour, counts) -> {
+            Map<String, Integer> depts = new HashMap<>();
+            counts.forEach((doctorId, n) -> {
+                DoctorCatalog.Doctor d = byId.get(doctorId);
+                depts.merge(d == null || d.dept == null ? "" : d.dept, n, Integer::sum);
+            });
+            series.put(hour, depts);
+        });
+        return series;
+    }
+
+    /**
+     * Recounts the appointment rollups from the appointments table; see {@link ApptRollup#verify}.
+     */
+    static ApptRollup.Report verifyRollups(boolean repair) throws SQLException {
+        try (Connection conn = getConnection()) {
+            return rollup.verify(conn, repair);
+        }
+    }
+
     /**
      * Try to book an appointment.
      * Return codes:
@@ -375,145 +467,515 @@ public class Database {
      */
     public static int bookAppointment(int doctorId, String patientUsername, String patientName, LocalDateTime time) throws SQLException {
         // find schedule for doctor where time is inside [start_time, end_time)
-        try (Connection conn0 = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn0.prepareStatement("SELECT id, capacity, start_time, end_time FROM schedules WHERE doctor_id=? AND start_time<=? AND end_time>?");
-            ps.setInt(1, doctorId);
-            ps.setTimestamp(2, Timestamp.valueOf(time));
-            ps.setTimestamp(3, Timestamp.valueOf(time));
-            ResultSet rs = ps.executeQuery();
-            if (!rs.next()) return 1; // no matching schedule
-            int scheduleId = rs.getInt("id");
-            int capacity = rs.getInt("capacity");
-            Timestamp start = rs.getTimestamp("start_time");
-            Timestamp end = rs.getTimestamp("end_time");
-            Object lock = scheduleLocks.computeIfAbsent(scheduleId, k -> new Object());
-            synchronized (lock) {
-                Connection conn = DriverManager.getConnection(DB_URL);
+        ScheduleIndex.Slot slot = schedules.find(doctorId, time);
+        if (slot == null) return 1; // no matching schedule
+        int scheduleId = slot.id;
+        Timestamp start = Timestamp.valueOf(slot.start);
+        Timestamp end = Timestamp.valueOf(slot.end);
+        // full slots are rejected here, before any connection, lock or transaction
+        if (inventory.tryReserve(scheduleId) == SlotInventory.Reservation.FULL) return 3;
+        boolean settled = false;
+        try (Connection conn = getConnection()) {
+            for (int attempt = 1; ; attempt++) {
                 try {
-                    conn.setAutoCommit(false);
-                    // check patient already has appointment in this interval
-                    PreparedStatement pCheckPatient = conn.prepareStatement("SELECT COUNT(*) FROM appointments WHERE patient_username=? AND appt_time>=? AND appt_time<?");
-                    pCheckPatient.setString(1, patientUsername);
-                    pCheckPatient.setTimestamp(2, start);
-                    pCheckPatient.setTimestamp(3, end);
-                    ResultSet rcp = pCheckPatient.executeQuery(); rcp.next();
-                    if (rcp.getInt(1) > 0) { conn.rollback(); conn.setAutoCommit(true); return 2; }
-
-                    // count current bookings for this schedule interval
-                    PreparedStatement pCount = conn.prepareStatement("SELECT COUNT(*) FROM appointments WHERE doctor_id=? AND appt_time>=? AND appt_time<?");
-                    pCount.setInt(1, doctorId);
-                    pCount.setTimestamp(2, start);
-                    pCount.setTimestamp(3, end);
-                    ResultSet rc = pCount.executeQuery(); rc.next();
-                    int booked = rc.getInt(1);
-                    if (booked >= capacity) { conn.rollback(); conn.setAutoCommit(true); return 3; }
-
-                    PreparedStatement ins = conn.prepareStatement("INSERT INTO appointments(doctor_id,patient_username,patient_name,appt_time) VALUES(?,?,?,?)");
-                    ins.setInt(1, doctorId);
-                    ins.setString(2, patientUsername);
-                    ins.setString(3, patientName);
-                    ins.setTimestamp(4, Timestamp.valueOf(time));
-                    ins.executeUpdate();
-                    conn.commit(); conn.setAutoCommit(true);
-                    return 0;
-                } catch (SQLException ex) {
-                    try { conn.rollback(); } catch (SQLException ignore) {}
-                    try { conn.setAutoCommit(true); } catch (SQLException ignore) {}
-                    throw ex;
-                } finally {
-                    try { conn.close(); } catch (SQLException ignore) {}
+                    int result = bookInTransaction(conn, scheduleId, doctorId, patientUsername, patientName, time, start, end);
+                    if (result == 3) inventory.correct(scheduleId, seatsLeft(conn, scheduleId));
+                    // a duplicate booking leaves the seat unused; a full slot has just been set from the database
+                    settled = result != 2;
+                    return result;
+                } catch (SQLTransactionRollbackException ex) {
+                    // lock timeout or deadlock, e.g. Derby's identity generator under a burst of first inserts
+                    if (attempt >= BOOK_ATTEMPTS) throw ex;
+                }
+            }
+        } finally {
+            // the reserved seat goes back unless it turned into an appointment (or the slot proved full)
+            if (!settled) inventory.release(scheduleId);
+        }
+    }
+
+    private static final int BOOK_ATTEMPTS = 3;
+
+    // capacity - booked of a schedule as committed now, 0 if the schedule is gone
+    private static int seatsLeft(Connection conn, int scheduleId) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT capacity - booked FROM schedules WHERE id=?")) {
+            ps.setInt(1, scheduleId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    // returns 0 booked, 2 patient already booked in the interval, 3 no seat left in the database
+    private static int bookInTransaction(Connection conn, int scheduleId, int doctorId, String patientUsername, String patientName,
+                                         LocalDateTime time, Timestamp start, Timestamp end) throws SQLException {
+        try {
+            conn.setAutoCommit(false);
+            // take a seat first: the row lock on the schedule serializes concurrent bookings of it until commit
+            PreparedStatement take = conn.prepareStatement("UPDATE schedules SET booked=booked+1, updated_at=CURRENT_TIMESTAMP WHERE id=? AND booked<capacity");
+            take.setInt(1, scheduleId);
+            boolean seated = take.executeUpdate() == 1;
+
+            // check patient already has appointment in this interval
+            PreparedStatement pCheckPatient = conn.prepareStatement("SELECT COUNT(*) FROM appointments WHERE patient_username=? AND appt_time>=? AND appt_time<?");
+            pCheckPatient.setString(1, patientUsername);
+            pCheckPatient.setTimestamp(2, start);
+            pCheckPatient.setTimestamp(3, end);
+            ResultSet rcp = pCheckPatient.executeQuery(); rcp.next();
+            if (rcp.getInt(1) > 0) { conn.rollback(); return 2; }
+            if (!seated) { conn.rollback(); return 3; }
+
+            PreparedStatement ins = conn.prepareStatement("INSERT INTO appointments(doctor_id,patient_username,patient_name,appt_time,schedule_id) VALUES(?,?,?,?,?)");
+            ins.setInt(1, doctorId);
+            ins.setString(2, patientUsername);
+            ins.setString(3, patientName);
+            ins.setTimestamp(4, Timestamp.valueOf(time));
+            ins.setInt(5, scheduleId);
+            ins.executeUpdate();
+            // the booking commits here, together with its rollup row; the in-memory totals follow before verification may run
+            try (ApptRollup.Commit commit = rollup.beforeCommit(conn, ApptRollup.Changes.of(doctorId, time, 1))) {
+                conn.commit();
+                commit.committed();
+            }
+            return 0;
+        } catch (SQLException ex) {
+            try { conn.rollback(); } catch (SQLException ignore) {}
+            throw ex;
+        } finally {
+            try { conn.setAutoCommit(true); } catch (SQLException ignore) {}
+        }
+    }
+
+    /**
+     * One booking of a batch; {@link #bookAppointments} fills in its code (as for
+     * {@link #bookAppointment}) and, when booked, the new appointment's id.
+     */
+    static final class BookingItem {
+        final int doctorId;
+        final String patientUsername;
+        final String patientName;
+        final LocalDateTime time;
+        int code = -1;
+        int apptId = -1;
+        private ScheduleIndex.Slot slot;
+
+        BookingItem(int doctorId, String patientUsername, String patientName, LocalDateTime time) {
+            this.doctorId = doctorId;
+            this.patientUsername = patientUsername;
+            this.patientName = patientName;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Books many appointments in one transaction. Each item gets its own result code: an item that
+     * fails leaves nothing behind and the others still commit. Items are written in
+     * schedule order, so concurrent batches take the schedule row locks in the same order.
+     * Returns the number booked.
+     */
+    static int bookAppointments(List<BookingItem> items) throws SQLException {
+        List<BookingItem> pending = new ArrayList<>();
+        for (BookingItem item : items) {
+            item.slot = schedules.find(item.doctorId, item.time);
+            if (item.slot == null) item.code = 1;
+            else if (inventory.tryReserve(item.slot.id) == SlotInventory.Reservation.FULL) item.code = 3;
+            else pending.add(item);
+        }
+        // stable, so items of one schedule keep their order
+        pending.sort(Comparator.comparingInt(item -> item.slot.id));
+        boolean committed = false;
+        try (Connection conn = getConnection()) {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    bookBatchInTransaction(conn, pending);
+                    committed = true;
+                    break;
+                } catch (SQLTransactionRollbackException ex) {
+                    if (attempt >= BOOK_ATTEMPTS) throw ex;
+                }
+            }
+            // as for a single booking: a reserved seat is kept by a new appointment or a slot that proved
+            // full; slots found full are set from the database after the releases
+            Set<Integer> full = new TreeSet<>();
+            for (BookingItem item : pending) {
+                if (item.code == 2) inventory.release(item.slot.id);
+                else if (item.code == 3) full.add(item.slot.id);
+            }
+            for (int id : full) inventory.correct(id, seatsLeft(conn, id));
+        } finally {
+            if (!committed) {
+                for (BookingItem item : pending) inventory.release(item.slot.id);
+            }
+        }
+        int booked = 0;
+        for (BookingItem item : items) if (item.code == 0) booked++;
+        return booked;
+    }
+
+    private static void bookBatchInTransaction(Connection conn, List<BookingItem> items) throws SQLException {
+        try {
+            conn.setAutoCommit(false);
+            PreparedStatement take = conn.prepareStatement("UPDATE schedules SET booked=booked+1, updated_at=CURRENT_TIMESTAMP WHERE id=? AND booked<capacity");
+            PreparedStatement checkPatient = conn.prepareStatement("SELECT COUNT(*) FROM appointments WHERE patient_username=? AND appt_time>=? AND appt_time<?");
+            PreparedStatement free = conn.prepareStatement("UPDATE schedules SET booked=booked-1, updated_at=CURRENT_TIMESTAMP WHERE id=?");
+            PreparedStatement ins = conn.prepareStatement("INSERT INTO appointments(doctor_id,patient_username,patient_name,appt_time,schedule_id) VALUES(?,?,?,?,?)",
+                    Statement.RETURN_GENERATED_KEYS);
+            ApptRollup.Changes changes = new ApptRollup.Changes();
+            for (BookingItem item : items) {
+                item.apptId = -1;
+                take.setInt(1, item.slot.id);
+                boolean seated = take.executeUpdate() == 1;
+                // sees the appointments booked earlier in this batch as well
+                checkPatient.setString(1, item.patientUsername);
+                checkPatient.setTimestamp(2, Timestamp.valueOf(item.slot.start));
+                checkPatient.setTimestamp(3, Timestamp.valueOf(item.slot.end));
+                int existing;
+                try (ResultSet rs = checkPatient.executeQuery()) {
+                    rs.next();
+                    existing = rs.getInt(1);
                 }
+                if (existing > 0) {
+                    // give back the seat taken above; the schedule row stays locked by this transaction
+                    if (seated) {
+                        free.setInt(1, item.slot.id);
+                        free.executeUpdate();
+                    }
+                    item.code = 2;
+                    continue;
+                }
+                if (!seated) {
+                    item.code = 3;
+                    continue;
+                }
+                ins.setInt(1, item.doctorId);
+                ins.setString(2, item.patientUsername);
+                ins.setString(3, item.patientName);
+                ins.setTimestamp(4, Timestamp.valueOf(item.time));
+                ins.setInt(5, item.slot.id);
+                ins.executeUpdate();
+                try (ResultSet keys = ins.getGeneratedKeys()) {
+                    if (keys.next()) item.apptId = keys.getInt(1);
+                }
+                changes.add(item.doctorId, item.time, 1);
+                item.code = 0;
+            }
+            try (ApptRollup.Commit commit = rollup.beforeCommit(conn, changes)) {
+                conn.commit();
+                commit.committed();
             }
+        } catch (SQLException ex) {
+            try { conn.rollback(); } catch (SQLException ignore) {}
+            throw ex;
+        } finally {
+            try { conn.setAutoCommit(true); } catch (SQLException ignore) {}
         }
     }
 
     public static boolean cancelAppointment(int apptId) throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("DELETE FROM appointments WHERE id=?");
-            ps.setInt(1, apptId);
-            return ps.executeUpdate() > 0;
+        try (Connection conn = getConnection()) {
+            try {
+                conn.setAutoCommit(false);
+                PreparedStatement find = conn.prepareStatement("SELECT schedule_id, doctor_id, appt_time FROM appointments WHERE id=?");
+                find.setInt(1, apptId);
+                ResultSet rs = find.executeQuery();
+                if (!rs.next()) { conn.rollback(); return false; }
+                int scheduleId = rs.getInt(1);
+                boolean hasSchedule = !rs.wasNull();
+                int doctorId = rs.getInt(2);
+                LocalDateTime time = rs.getTimestamp(3).toLocalDateTime();
+                rs.close();
+                PreparedStatement ps = conn.prepareStatement("DELETE FROM appointments WHERE id=?");
+                ps.setInt(1, apptId);
+                // a concurrent cancel of the same appointment may have won
+                if (ps.executeUpdate() == 0) { conn.rollback(); return false; }
+                PreparedStatement tomb = conn.prepareStatement("INSERT INTO deleted_rows(table_name,row_id) VALUES('appointments',?)");
+                tomb.setInt(1, apptId);
+                tomb.executeUpdate();
+                if (hasSchedule) {
+                    PreparedStatement free = conn.prepareStatement("UPDATE schedules SET booked=booked-1, updated_at=CURRENT_TIMESTAMP WHERE id=? AND booked>0");
+                    free.setInt(1, scheduleId);
+                    free.executeUpdate();
+                }
+                try (ApptRollup.Commit commit = rollup.beforeCommit(conn, ApptRollup.Changes.of(doctorId, time, -1))) {
+                    conn.commit();
+                    commit.committed();
+                }
+                if (hasSchedule) inventory.release(scheduleId);
+                return true;
+            } catch (SQLException ex) {
+                try { conn.rollback(); } catch (SQLException ignore) {}
+                throw ex;
+            } finally {
+                try { conn.setAutoCommit(true); } catch (SQLException ignore) {}
+            }
         }
     }
 
-    // search doctors
-    public static List<Map<String, String>> searchDoctorsByName(String name) throws SQLException {
-        List<Map<String, String>> list = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("SELECT id,name,dept,info FROM doctors WHERE name LIKE ?");
-            ps.setString(1, "%" + name + "%");
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                Map<String, String> m = new HashMap<>();
-                m.put("id", String.valueOf(rs.getInt("id")));
-                m.put("name", rs.getString("name"));
-                m.put("dept", rs.getString("dept"));
-                m.put("info", rs.getString("info"));
-                list.add(m);
+    /**
+     * Cancels many appointments in one transaction, in id order. Returns a code per id in the
+     * order given: 0 cancelled, 1 not found (including a repeated id).
+     */
+    static int[] cancelAppointments(List<Integer> apptIds) throws SQLException {
+        Integer[] order = new Integer[apptIds.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingInt(apptIds::get));
+        int[] codes = new int[apptIds.size()];
+        List<Integer> freed = new ArrayList<>();
+        try (Connection conn = getConnection()) {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    freed.clear();
+                    cancelBatchInTransaction(conn, apptIds, order, codes, freed);
+                    break;
+                } catch (SQLTransactionRollbackException ex) {
+                    if (attempt >= BOOK_ATTEMPTS) throw ex;
+                }
             }
         }
-        return list;
+        for (int scheduleId : freed) inventory.release(scheduleId);
+        return codes;
     }
 
-    public static List<Map<String, String>> searchDoctorsByDept(String dept) throws SQLException {
-        List<Map<String, String>> list = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("SELECT id,name,dept,info FROM doctors WHERE dept LIKE ?");
-            ps.setString(1, "%" + dept + "%");
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                Map<String, String> m = new HashMap<>();
-                m.put("id", String.valueOf(rs.getInt("id")));
-                m.put("name", rs.getString("name"));
-                m.put("dept", rs.getString("dept"));
-                m.put("info", rs.getString("info"));
-                list.add(m);
+    private static void cancelBatchInTransaction(Connection conn, List<Integer> apptIds, Integer[] order, int[] codes,
+                                                 List<Integer> freed) throws SQLException {
+        try {
+            conn.setAutoCommit(false);
+            PreparedStatement find = conn.prepareStatement("SELECT schedule_id, doctor_id, appt_time FROM appointments WHERE id=?");
+            PreparedStatement delete = conn.prepareStatement("DELETE FROM appointments WHERE id=?");
+            PreparedStatement tomb = conn.prepareStatement("INSERT INTO deleted_rows(table_name,row_id) VALUES('appointments',?)");
+            PreparedStatement free = conn.prepareStatement("UPDATE schedules SET booked=booked-1, updated_at=CURRENT_TIMESTAMP WHERE id=? AND booked>0");
+            ApptRollup.Changes changes = new ApptRollup.Changes();
+            for (int i : order) {
+                int apptId = apptIds.get(i);
+                codes[i] = 1;
+                find.setInt(1, apptId);
+                int scheduleId, doctorId;
+                boolean hasSchedule;
+                LocalDateTime time;
+                try (ResultSet rs = find.executeQuery()) {
+                    if (!rs.next()) continue;
+                    scheduleId = rs.getInt(1);
+                    hasSchedule = !rs.wasNull();
+                    doctorId = rs.getInt(2);
+                    time = rs.getTimestamp(3).toLocalDateTime();
+                }
+                delete.setInt(1, apptId);
+                // a concurrent cancel of the same appointment may have won
+                if (delete.executeUpdate() == 0) continue;
+                tomb.setInt(1, apptId);
+                tomb.executeUpdate();
+                if (hasSchedule) {
+                    free.setInt(1, scheduleId);
+                    free.executeUpdate();
+                    freed.add(scheduleId);
+                }
+                changes.add(doctorId, time, -1);
+                codes[i] = 0;
+            }
+            try (ApptRollup.Commit commit = rollup.beforeCommit(conn, changes)) {
+                conn.commit();
+                commit.committed();
             }
+        } catch (SQLException ex) {
+            try { conn.rollback(); } catch (SQLException ignore) {}
+            throw ex;
+        } finally {
+            try { conn.setAutoCommit(true); } catch (SQLException ignore) {}
         }
-        return list;
     }
 
+    // search doctors (substring match, as LIKE '%q%' did) through the n-gram index
+    public static List<Map<String, String>> searchDoctorsByName(String name) throws SQLException {
+        doctorCatalog();
+        return rows(searchIndex.containing(name, DoctorSearchIndex.NAME));
+    }
+
+    public static List<Map<String, String>> searchDoctorsByDept(String dept) throws SQLException {
+        doctorCatalog();
+        return rows(searchIndex.containing(dept, DoctorSearchIndex.DEPT));
+    }
+
+    /**
+     * Ranked search over name, dept and info at once.
+     */
+    public static List<Map<String, String>> searchDoctors(String q, int limit) throws SQLException {
+        doctorCatalog();
+        return rows(searchIndex.search(q, limit));
+    }
+
+    // doctor writes are rare; serializing them keeps catalog patches in commit order
     public static boolean addDoctor(String name, String dept, String info) throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("INSERT INTO doctors(name,dept,info) VALUES(?,?,?)");
-            ps.setString(1, name); ps.setString(2, dept); ps.setString(3, info);
-            return ps.executeUpdate() > 0;
+        synchronized (doctors) {
+            try (Connection conn = getConnection()) {
+                PreparedStatement ps = conn.prepareStatement("INSERT INTO doctors(name,dept,info) VALUES(?,?,?)", Statement.RETURN_GENERATED_KEYS);
+                ps.setString(1, name); ps.setString(2, dept); ps.setString(3, info);
+                if (ps.executeUpdate() == 0) return false;
+                ResultSet keys = ps.getGeneratedKeys();
+                if (keys.next()) doctors.put(new DoctorCatalog.Doctor(keys.getInt(1), name, dept, info));
+                else doctors.invalidate();
+                return true;
+            }
         }
     }
 
     public static boolean updateDoctor(int id, String name, String dept, String info) throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("UPDATE doctors SET name=?, dept=?, info=? WHERE id=?");
-            ps.setString(1, name); ps.setString(2, dept); ps.setString(3, info); ps.setInt(4, id);
-            return ps.executeUpdate() > 0;
+        synchronized (doctors) {
+            try (Connection conn = getConnection()) {
+                PreparedStatement ps = conn.prepareStatement("UPDATE doctors SET name=?, dept=?, info=?, updated_at=CURRENT_TIMESTAMP WHERE id=?");
+                ps.setString(1, name); ps.setString(2, dept); ps.setString(3, info); ps.setInt(4, id);
+                if (ps.executeUpdate() == 0) return false;
+                doctors.put(new DoctorCatalog.Doctor(id, name, dept, info));
+                return true;
+            }
         }
     }
 
-    public static boolean addSchedule(int doctorId, LocalDateTime slot, String note) throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("INSERT INTO schedules(doctor_id,start_time,end_time,note,capacity) VALUES(?,?,?,?,?)");
-            ps.setInt(1, doctorId); ps.setTimestamp(2, Timestamp.valueOf(slot)); ps.setTimestamp(3, Timestamp.valueOf(slot.plusHours(1))); ps.setString(4, note); ps.setInt(5, 1);
-            return ps.executeUpdate() > 0;
+    /**
+     * Runs an Excel import in one transaction. Doctor writes are held off for its duration, so the
+     * ids generated by the import can be read back unambiguously. After commit the doctor catalog
+     * and search index are rebuilt and the new schedules join the schedule index and inventory;
+     * on failure everything is rolled back and the caches are untouched.
+     */
+    static DoctorImport.Result importDoctors(DoctorImport.Source source) throws SQLException, IOException {
+        synchronized (doctors) {
+            // no single add_schedule may pass its overlap check until the imported schedules are indexed
+            Lock batch = schedules.batchInsert();
+            batch.lock();
+            try (Connection conn = getConnection()) {
+                DoctorImport.Result result;
+                DoctorCatalog.Snapshot catalog = doctorCatalog(conn);
+                try {
+                    conn.setAutoCommit(false);
+                    try (DoctorImport imp = new DoctorImport(conn, catalog, schedules)) {
+                        source.readInto(imp);
+                        result = imp.finish();
+                    }
+                    conn.commit();
+                } catch (SQLException | IOException | RuntimeException ex) {
+                    try { conn.rollback(); } catch (SQLException ignore) {}
+                    throw ex;
+                } finally {
+                    try { conn.setAutoCommit(true); } catch (SQLException ignore) {}
+                }
+                publishSchedules(result.slots);
+                if (result.addedDoctors + result.updatedDoctors > 0) {
+                    doctors.invalidate();
+                    doctors.load(conn);
+                }
+                return result;
+            } finally {
+                batch.unlock();
+            }
         }
     }
 
+    public static boolean addSchedule(int doctorId, LocalDateTime slot, String note) throws SQLException {
+        return addSchedule(doctorId, slot, slot.plusHours(1), note, 1);
+    }
+
     public static boolean addSchedule(int doctorId, LocalDateTime slot, String note, int capacity) throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("INSERT INTO schedules(doctor_id,start_time,end_time,note,capacity) VALUES(?,?,?,?,?)");
-            ps.setInt(1, doctorId); ps.setTimestamp(2, Timestamp.valueOf(slot)); ps.setTimestamp(3, Timestamp.valueOf(slot.plusHours(1))); ps.setString(4, note); ps.setInt(5, capacity);
-            return ps.executeUpdate() > 0;
-        }
+        return addSchedule(doctorId, slot, slot.plusHours(1), note, capacity);
     }
 
+    /**
+     * Returns false if the interval is empty or overlaps another schedule of the doctor.
+     */
     public static boolean addSchedule(int doctorId, LocalDateTime start, LocalDateTime end, String note, int capacity) throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("INSERT INTO schedules(doctor_id,start_time,end_time,note,capacity) VALUES(?,?,?,?,?)");
-            ps.setInt(1, doctorId); ps.setTimestamp(2, Timestamp.valueOf(start)); ps.setTimestamp(3, Timestamp.valueOf(end)); ps.setString(4, note); ps.setInt(5, capacity);
-            return ps.executeUpdate() > 0;
+        if (!end.isAfter(start)) return false;
+        // check and insert under the doctor's lock so two concurrent inserts cannot both pass the overlap check
+        Lock single = schedules.singleInsert();
+        single.lock();
+        try {
+            synchronized (schedules.lockFor(doctorId)) {
+                if (schedules.overlaps(doctorId, start, end)) {
+                    schedules.rejectedOverlap();
+                    return false;
+                }
+                try (Connection conn = getConnection()) {
+                    PreparedStatement ps = conn.prepareStatement("INSERT INTO schedules(doctor_id,start_time,end_time,note,capacity) VALUES(?,?,?,?,?)", Statement.RETURN_GENERATED_KEYS);
+                    ps.setInt(1, doctorId); ps.setTimestamp(2, Timestamp.valueOf(start)); ps.setTimestamp(3, Timestamp.valueOf(end)); ps.setString(4, note); ps.setInt(5, capacity);
+                    if (ps.executeUpdate() == 0) return false;
+                    ResultSet keys = ps.getGeneratedKeys();
+                    if (keys.next()) {
+                        int id = keys.getInt(1);
+                        inventory.track(id, capacity);
+                        schedules.add(new ScheduleIndex.Slot(id, doctorId, start, end, capacity, note));
+                    }
+                    return true;
+                }
+            }
+        } finally {
+            single.unlock();
+        }
+    }
+
+    /**
+     * Returns the new template's id, or -1 if the doctor does not exist.
+     */
+    static int addScheduleTemplate(ScheduleTemplates.Template t) throws SQLException {
+        if (!doctorCatalog().byId.containsKey(t.doctorId)) return -1;
+        try (Connection conn = getConnection()) {
+            return ScheduleTemplates.add(conn, t);
+        }
+    }
+
+    static List<ScheduleTemplates.Template> getScheduleTemplates(Integer doctorId) throws SQLException {
+        try (Connection conn = getConnection()) {
+            return ScheduleTemplates.list(conn, doctorId);
+        }
+    }
+
+    /**
+     * Deletes a template; schedules generated from it stay.
+     */
+    static boolean deleteScheduleTemplate(int id) throws SQLException {
+        try (Connection conn = getConnection()) {
+            return ScheduleTemplates.delete(conn, id);
+        }
+    }
+
+    /**
+     * Expands the templates (of one doctor, or all) over the days in [from, to), committing every
+     * {@code habms.schedules.commitRows} schedules so bookings of existing schedules never wait
+     * for a table lock. Single schedule inserts wait until the generation ends. On failure the
+     * parts already committed stay; running the same range again adds the rest, since overlapping
+     * slots are skipped.
+     */
+    static ScheduleTemplates.Result generateSchedules(LocalDate from, LocalDate to, Integer doctorId) throws SQLException {
+        Lock batch = schedules.batchInsert();
+        batch.lock();
+        try (Connection conn = getConnection()) {
+            try {
+                conn.setAutoCommit(false);
+                try (ScheduleBatch inserts = new ScheduleBatch(conn, schedules, ServerConfig.SCHEDULE_COMMIT_ROWS, Database::publishSchedules)) {
+                    ScheduleTemplates.Result result = ScheduleTemplates.generate(conn, inserts, from, to, doctorId);
+                    List<ScheduleIndex.Slot> rest = inserts.finish();
+                    conn.commit();
+                    publishSchedules(rest);
+                    result.addedSchedules = inserts.added();
+                    return result;
+                }
+            } catch (SQLException | RuntimeException ex) {
+                try { conn.rollback(); } catch (SQLException ignore) {}
+                throw ex;
+            } finally {
+                try { conn.setAutoCommit(true); } catch (SQLException ignore) {}
+            }
+        } finally {
+            batch.unlock();
+        }
+    }
+
+    // committed schedules become bookable and take part in later overlap checks
+    private static void publishSchedules(List<ScheduleIndex.Slot> slots) {
+        for (ScheduleIndex.Slot slot : slots) {
+            inventory.track(slot.id, slot.capacity);
+            schedules.add(slot);
         }
     }
 
     public static boolean updateSchedule(int scheduleId, LocalDateTime slot, String note) throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
+        try (Connection conn = getConnection()) {
             PreparedStatement ps = conn.prepareStatement("UPDATE schedules SET slot_time=?, note=? WHERE id=?");
             ps.setTimestamp(1, Timestamp.valueOf(slot)); ps.setString(2, note); ps.setInt(3, scheduleId);
             return ps.executeUpdate() > 0;
@@ -522,32 +984,20 @@ public class Database {
 
     public static String listSchedules(int doctorId) throws SQLException {
         StringBuilder sb = new StringBuilder();
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement ps = conn.prepareStatement("SELECT id,start_time,end_time,note,capacity FROM schedules WHERE doctor_id=? ORDER BY start_time");
-            ps.setInt(1, doctorId);
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                Timestamp start = rs.getTimestamp("start_time");
-                Timestamp end = rs.getTimestamp("end_time");
-                int capacity = rs.getInt("capacity");
-                PreparedStatement pc = conn.prepareStatement("SELECT COUNT(*) FROM appointments WHERE doctor_id=? AND appt_time>=? AND appt_time<?");
-                pc.setInt(1, doctorId);
-                pc.setTimestamp(2, start);
-                pc.setTimestamp(3, end);
-                ResultSet rc = pc.executeQuery(); rc.next();
-                int booked = rc.getInt(1);
-                sb.append(rs.getInt("id")).append("|")
-                  .append(start.toString()).append(" to ").append(end.toString()).append("|")
-                  .append(rs.getString("note")).append("|")
-                  .append(capacity).append("|")
-                  .append(booked).append("|")
-                  .append(Math.max(0, capacity-booked)).append("\n");
-            }
+        for (ScheduleIndex.Slot slot : schedules.forDoctor(doctorId)) {
+            int available = available(slot);
+            sb.append(slot.id).append("|")
+              .append(Timestamp.valueOf(slot.start)).append(" to ").append(Timestamp.valueOf(slot.end)).append("|")
+              .append(slot.note).append("|")
+              .append(slot.capacity).append("|")
+              .append(slot.capacity - available).append("|")
+              .append(available).append("\n");
         }
         return sb.toString();
     }
 
     public static void shutdown() {
+        if (pool != null) pool.close();
         try {
             DriverManager.getConnection("jdbc:derby:;shutdown=true");
         } catch (SQLException se) {
@@ -0,0 +1,44 @@
+package com.habms.server;
+
+import java.sql.SQLException;
+
+/**
+ * Doctor listing, search and maintenance.
+ */
+final class DoctorActions {
+    private DoctorActions() {}
+
+    static void listDoctors(Requests.ListDoctors req, Exchange ex) throws SQLException {
+        ex.ok();
+        ex.put("data", Database.getDoctorsList());
+    }
+
+    static void searchName(Requests.SearchName req, Exchange ex) throws SQLException {
+        ex.ok();
+        ex.put("data", Database.searchDoctorsByName(req.q));
+    }
+
+    static void searchDept(Requests.SearchDept req, Exchange ex) throws SQLException {
+        ex.ok();
+        ex.put("data", Database.searchDoctorsByDept(req.q));
+    }
+
+    static void search(Requests.Search req, Exchange ex) throws SQLException {
+        int limit = req.limit == null ? ServerConfig.SEARCH_LIMIT : req.limit;
+        limit = Math.max(1, Math.min(limit, ServerConfig.SEARCH_MAX_LIMIT));
+        ex.ok();
+        ex.put("data", Database.searchDoctors(req.q, limit));
+    }
+
+    static void addDoctor(Requests.AddDoctor req, Exchange ex) throws SQLException {
+        if (!ex.requireAdmin()) return;
+        boolean ok = Database.addDoctor(req.name, req.dept, req.info);
+        ex.put("status", ok ? "OK" : "ERR");
+    }
+
+    static void updateDoctor(Requests.UpdateDoctor req, Exchange ex) throws SQLException {
+        if (!ex.requireAdmin()) return;
+        boolean ok = Database.updateDoctor(req.id, req.name, req.dept, req.info);
+        ex.put("status", ok ? "OK" : "ERR");
+    }
+}
@@ -0,0 +1,143 @@
+package com.habms.server;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-mostly cache of the doctors table. Readers get an immutable snapshot without locking;
+ * writers (add/update doctor) patch a copy and publish it, so list and search requests never go
+ * to the database. A snapshot that was invalidated, e.g. by an Excel import, is rebuilt from the
+ * table on the next read. The search index is updated under the same monitor before each snapshot
+ * is published, so it always matches the current snapshot.
+ */
+class DoctorCatalog {
+    static final class Doctor {
+        final int id;
+        final String name;
+        final String dept;
+        final String info;
+        // response row shared by every list/search result
+        final Map<String, String> row;
+
+        Doctor(int id, String name, String dept, String info) {
+            this.id = id;
+            this.name = name;
+            this.dept = dept;
+            this.info = info;
+            Map<String, String> m = new HashMap<>();
+            m.put("id", String.valueOf(id));
+            m.put("name", name);
+            m.put("dept", dept);
+            m.put("info", info);
+            this.row = Collections.unmodifiableMap(m);
+        }
+    }
+
+    static final class Snapshot {
+        final List<Doctor> doctors;
+        final Map<Integer, Doctor> byId;
+        private final Map<String, Integer> idByName;
+
+        private Snapshot(TreeMap<Integer, Doctor> sorted) {
+            this.doctors = Collections.unmodifiableList(new ArrayList<>(sorted.values()));
+            this.byId = Collections.unmodifiableMap(sorted);
+            Map<String, Integer> names = new HashMap<>();
+            for (Doctor d : doctors) {
+                if (d.name != null) names.putIfAbsent(d.name, d.id);
+            }
+            this.idByName = names;
+        }
+
+        List<Map<String, String>> rows() {
+            List<Map<String, String>> list = new ArrayList<>(doctors.size());
+            for (Doctor d : doctors) list.add(d.row);
+            return list;
+        }
+
+        int idByName(String name) {
+            Integer id = idByName.get(name);
+            return id == null ? -1 : id;
+        }
+    }
+
+    private final DoctorSearchIndex search;
+    private volatile Snapshot snapshot;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong rebuilds = new AtomicLong();
+    private final AtomicLong patches = new AtomicLong();
+    private volatile long lastRebuildMicros;
+
+    DoctorCatalog(DoctorSearchIndex search) {
+        this.search = search;
+    }
+
+    /**
+     * The current snapshot, or null if it has to be rebuilt with {@link #load(Connection)}.
+     */
+    Snapshot current() {
+        Snapshot s = snapshot;
+        if (s == null) misses.incrementAndGet();
+        else hits.incrementAndGet();
+        return s;
+    }
+
+    synchronized Snapshot load(Connection conn) throws SQLException {
+        if (snapshot != null) return snapshot;
+        long t0 = System.nanoTime();
+        TreeMap<Integer, Doctor> sorted = new TreeMap<>();
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT id,name,dept,info FROM doctors")) {
+            while (rs.next()) {
+                sorted.put(rs.getInt(1), new Doctor(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4)));
+            }
+        }
+        Snapshot s = new Snapshot(sorted);
+        search.rebuild(s.doctors);
+        snapshot = s;
+        lastRebuildMicros = (System.nanoTime() - t0) / 1000;
+        rebuilds.incrementAndGet();
+        return snapshot;
+    }
+
+    /**
+     * Publishes a new snapshot with the doctor added or replaced, and puts it into the search index.
+     */
+    synchronized void put(Doctor doctor) {
+        Snapshot s = snapshot;
+        if (s == null) return; // the next read rebuilds both from the table anyway
+        TreeMap<Integer, Doctor> sorted = new TreeMap<>(s.byId);
+        sorted.put(doctor.id, doctor);
+        search.put(doctor);
+        snapshot = new Snapshot(sorted);
+        patches.incrementAndGet();
+    }
+
+    synchronized void invalidate() {
+        snapshot = null;
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        Snapshot s = snapshot;
+        long h = hits.get(), mi = misses.get();
+        m.put("doctors", s == null ? 0 : s.doctors.size());
+        m.put("hits", h);
+        m.put("misses", mi);
+        m.put("hitRatio", h + mi == 0 ? 0.0 : (double) h / (h + mi));
+        m.put("rebuilds", rebuilds.get());
+        m.put("lastRebuildMicros", lastRebuildMicros);
+        m.put("patches", patches.get());
+        return m;
+    }
+}
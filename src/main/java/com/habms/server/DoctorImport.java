@@ -0,0 +1,158 @@
+package com.habms.server;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One Excel import inside a single transaction (see {@link Database#importDoctors}). Doctors are
+ * upserted by name and schedules inserted with JDBC batches. Names resolve through a map built
+ * once from the doctor catalog and extended with the doctors this import adds, so no row costs
+ * a lookup query. Schedules go through a {@link ScheduleBatch}. Nothing reaches the caches before
+ * the transaction commits.
+ */
+final class DoctorImport implements AutoCloseable {
+    static final int BATCH_ROWS = ScheduleBatch.BATCH_ROWS;
+
+    /**
+     * Feeds the rows of an import into a {@link DoctorImport}.
+     */
+    interface Source {
+        void readInto(DoctorImport target) throws SQLException, IOException;
+    }
+
+    static final class Result {
+        int addedDoctors;
+        int updatedDoctors;
+        int addedSchedules;
+        // the inserted schedules with their generated ids, published to the schedule index after commit
+        final List<ScheduleIndex.Slot> slots = new ArrayList<>();
+    }
+
+    private final Connection conn;
+    private final Map<String, Integer> idByName = new HashMap<>();
+    private final Map<Integer, DoctorCatalog.Doctor> byId;
+    // new doctors by name (dept, info) until their insert batch runs and the ids are read back
+    private final Map<String, String[]> newDoctors = new LinkedHashMap<>();
+    private final PreparedStatement updateDoctor;
+    private final ScheduleBatch newSchedules;
+    private final int maxDoctorId;
+    private int pendingUpdates = 0;
+    private final Result result = new Result();
+
+    DoctorImport(Connection conn, DoctorCatalog.Snapshot catalog, ScheduleIndex schedules) throws SQLException {
+        this.conn = conn;
+        this.byId = new HashMap<>(catalog.byId);
+        for (DoctorCatalog.Doctor d : catalog.doctors) {
+            if (d.name != null) idByName.putIfAbsent(d.name, d.id);
+        }
+        this.updateDoctor = conn.prepareStatement("UPDATE doctors SET dept=?, info=?, updated_at=CURRENT_TIMESTAMP WHERE id=?");
+        this.newSchedules = new ScheduleBatch(conn, schedules);
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(id), 0) FROM doctors")) {
+            rs.next();
+            this.maxDoctorId = rs.getInt(1);
+        }
+    }
+
+    /**
+     * Adds the doctor, or updates dept and info of the existing doctor with that name.
+     */
+    void doctor(String name, String dept, String info) throws SQLException {
+        if (newDoctors.containsKey(name)) {
+            newDoctors.put(name, new String[]{dept, info});
+            return;
+        }
+        Integer id = idByName.get(name);
+        if (id == null) {
+            newDoctors.put(name, new String[]{dept, info});
+            return;
+        }
+        DoctorCatalog.Doctor old = byId.get(id);
+        if (old != null && dept.equals(old.dept) && info.equals(old.info)) return;
+        byId.put(id, new DoctorCatalog.Doctor(id, name, dept, info));
+        updateDoctor.setString(1, dept); updateDoctor.setString(2, info); updateDoctor.setInt(3, id);
+        updateDoctor.addBatch();
+        result.updatedDoctors++;
+        if (++pendingUpdates >= BATCH_ROWS) { updateDoctor.executeBatch(); pendingUpdates = 0; }
+    }
+
+    /**
+     * Resolves a schedule row's doctor column, a doctor id or a name; -1 if there is no such doctor.
+     */
+    int doctorId(String ref) throws SQLException {
+        insertNewDoctors();
+        try {
+            int id = Integer.parseInt(ref);
+            return byId.containsKey(id) ? id : -1;
+        } catch (NumberFormatException ex) {
+            Integer id = idByName.get(ref);
+            return id == null ? -1 : id;
+        }
+    }
+
+    /**
+     * Queues a schedule insert; returns false if the interval is empty or overlaps a schedule of
+     * the doctor, either an existing one or one imported earlier in this file.
+     */
+    boolean schedule(int doctorId, LocalDateTime start, LocalDateTime end, String note, int capacity) throws SQLException {
+        return newSchedules.add(doctorId, start, end, note, capacity);
+    }
+
+    // runs the queued doctor inserts and reads back their generated ids
+    private void insertNewDoctors() throws SQLException {
+        if (newDoctors.isEmpty()) return;
+        try (PreparedStatement ins = conn.prepareStatement("INSERT INTO doctors(name,dept,info) VALUES(?,?,?)")) {
+            int n = 0;
+            for (Map.Entry<String, String[]> e : newDoctors.entrySet()) {
+                ins.setString(1, e.getKey()); ins.setString(2, e.getValue()[0]); ins.setString(3, e.getValue()[1]);
+                ins.addBatch();
+                if (++n % BATCH_ROWS == 0) ins.executeBatch();
+            }
+            ins.executeBatch();
+        }
+        // doctor writes are serialized on the catalog, so every id above the old maximum is ours
+        try (PreparedStatement ps = conn.prepareStatement("SELECT id,name,dept,info FROM doctors WHERE id>?")) {
+            ps.setInt(1, maxDoctorId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int id = rs.getInt(1);
+                    if (byId.containsKey(id)) continue;
+                    byId.put(id, new DoctorCatalog.Doctor(id, rs.getString(2), rs.getString(3), rs.getString(4)));
+                    idByName.putIfAbsent(rs.getString(2), id);
+                }
+            }
+        }
+        result.addedDoctors += newDoctors.size();
+        newDoctors.clear();
+    }
+
+    /**
+     * Runs the remaining batches and collects the generated schedule ids. The caller commits.
+     */
+    Result finish() throws SQLException {
+        insertNewDoctors();
+        if (pendingUpdates > 0) updateDoctor.executeBatch();
+        result.slots.addAll(newSchedules.finish());
+        result.addedSchedules = newSchedules.added();
+        return result;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            updateDoctor.close();
+        } finally {
+            newSchedules.close();
+        }
+    }
+}
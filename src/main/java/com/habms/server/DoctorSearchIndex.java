@@ -0,0 +1,225 @@
+package com.habms.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Inverted index over doctor name, dept and info. Text is split into character unigrams and
+ * bigrams, which suits Chinese (no word boundaries, short names and departments) without a
+ * segmenter. Each posting records in which fields the gram occurs, so the same index answers
+ * field-restricted substring searches and the ranked all-field {@code search} action.
+ * Queries read an immutable {@link Index}; rebuilds and updates publish a new one, so a search
+ * during a catalog reload sees either the old index or the new one, never a partial one.
+ */
+class DoctorSearchIndex {
+    static final int NAME = 1;
+    static final int DEPT = 2;
+    static final int INFO = 4;
+
+    /**
+     * One published state of the index; its maps are never modified once it is published.
+     */
+    private static final class Index {
+        // gram -> doctor id -> bitmask of the fields containing the gram
+        final Map<String, Map<Integer, Integer>> postings;
+        final Map<Integer, DoctorCatalog.Doctor> docs;
+
+        Index(Map<String, Map<Integer, Integer>> postings, Map<Integer, DoctorCatalog.Doctor> docs) {
+            this.postings = postings;
+            this.docs = docs;
+        }
+    }
+
+    private volatile Index index = new Index(new HashMap<>(), new HashMap<>());
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
+
+    synchronized void rebuild(Collection<DoctorCatalog.Doctor> doctors) {
+        Map<String, Map<Integer, Integer>> postings = new HashMap<>();
+        Map<Integer, DoctorCatalog.Doctor> docs = new HashMap<>();
+        for (DoctorCatalog.Doctor d : doctors) {
+            docs.put(d.id, d);
+            for (Map.Entry<String, Integer> e : grams(d).entrySet()) {
+                postings.computeIfAbsent(e.getKey(), k -> new HashMap<>()).put(d.id, e.getValue());
+            }
+        }
+        index = new Index(postings, docs);
+    }
+
+    /**
+     * Indexes a new doctor or re-indexes a changed one. Copy-on-write: the gram map is copied
+     * shallowly and only the postings of the doctor's grams are copied before they change.
+     */
+    synchronized void put(DoctorCatalog.Doctor doctor) {
+        Index current = index;
+        Map<String, Map<Integer, Integer>> postings = new HashMap<>(current.postings);
+        Map<Integer, DoctorCatalog.Doctor> docs = new HashMap<>(current.docs);
+        DoctorCatalog.Doctor old = docs.put(doctor.id, doctor);
+        if (old != null) {
+            for (String gram : grams(old).keySet()) {
+                Map<Integer, Integer> p = postings.get(gram);
+                if (p == null) continue;
+                p = new HashMap<>(p);
+                p.remove(old.id);
+                if (p.isEmpty()) postings.remove(gram);
+                else postings.put(gram, p);
+            }
+        }
+        for (Map.Entry<String, Integer> e : grams(doctor).entrySet()) {
+            Map<Integer, Integer> p = postings.get(e.getKey());
+            p = p == null ? new HashMap<>() : new HashMap<>(p);
+            p.put(doctor.id, e.getValue());
+            postings.put(e.getKey(), p);
+        }
+        index = new Index(postings, docs);
+        updates.incrementAndGet();
+    }
+
+    /**
+     * Doctors whose field contains {@code q} as a substring, in id order. Candidates come from
+     * the postings of the query's grams and are verified against the field text.
+     */
+    List<DoctorCatalog.Doctor> containing(String q, int field) {
+        queries.incrementAndGet();
+        Index ix = index;
+        String needle = normalize(q);
+        List<DoctorCatalog.Doctor> result = new ArrayList<>();
+        Set<String> grams = queryGrams(needle);
+        Collection<Integer> candidates;
+        if (grams.isEmpty()) {
+            // blank query matches every non-null field, as LIKE '%%' did
+            candidates = ix.docs.keySet();
+        } else {
+            Set<Integer> matched = null;
+            for (String gram : grams) {
+                Map<Integer, Integer> p = ix.postings.get(gram);
+                if (p == null) return result;
+                Set<Integer> next = new HashSet<>();
+                for (Map.Entry<Integer, Integer> e : p.entrySet()) {
+                    if ((e.getValue() & field) != 0 && (matched == null || matched.contains(e.getKey()))) next.add(e.getKey());
+                }
+                if (next.isEmpty()) return result;
+                matched = next;
+            }
+            candidates = matched;
+        }
+        for (Integer id : candidates) {
+            DoctorCatalog.Doctor d = ix.docs.get(id);
+            String text = d == null ? null : field(d, field);
+            if (text != null && normalize(text).contains(needle)) result.add(d);
+        }
+        result.sort((a, b) -> Integer.compare(a.id, b.id));
+        return result;
+    }
+
+    /**
+     * Ranked search over all fields. A doctor must match at least half of the query's grams;
+     * grams score by field (name 3, dept 2, info 1) and a field containing the whole query
+     * earns a further bonus.
+     */
+    List<DoctorCatalog.Doctor> search(String q, int limit) {
+        queries.incrementAndGet();
+        Index ix = index;
+        String needle = normalize(q);
+        Set<String> grams = queryGrams(needle);
+        if (grams.isEmpty() || limit <= 0) return new ArrayList<>();
+        Map<Integer, int[]> hits = new HashMap<>(); // id -> {matched grams, score}
+        for (String gram : grams) {
+            Map<Integer, Integer> p = ix.postings.get(gram);
+            if (p == null) continue;
+            for (Map.Entry<Integer, Integer> e : p.entrySet()) {
+                int[] h = hits.computeIfAbsent(e.getKey(), k -> new int[2]);
+                h[0]++;
+                h[1] += weight(e.getValue());
+            }
+        }
+        int required = (grams.size() + 1) / 2;
+        List<Object[]> ranked = new ArrayList<>();
+        for (Map.Entry<Integer, int[]> e : hits.entrySet()) {
+            if (e.getValue()[0] < required) continue;
+            DoctorCatalog.Doctor d = ix.docs.get(e.getKey());
+            if (d == null) continue;
+            int score = e.getValue()[1];
+            if (d.name != null && normalize(d.name).contains(needle)) score += 10 * weight(NAME);
+            if (d.dept != null && normalize(d.dept).contains(needle)) score += 10 * weight(DEPT);
+            if (d.info != null && normalize(d.info).contains(needle)) score += 10 * weight(INFO);
+            ranked.add(new Object[]{d, score});
+        }
+        ranked.sort((a, b) -> {
+            int c = Integer.compare((Integer) b[1], (Integer) a[1]);
+            return c != 0 ? c : Integer.compare(((DoctorCatalog.Doctor) a[0]).id, ((DoctorCatalog.Doctor) b[0]).id);
+        });
+        List<DoctorCatalog.Doctor> result = new ArrayList<>();
+        for (int i = 0; i < ranked.size() && i < limit; i++) result.add((DoctorCatalog.Doctor) ranked.get(i)[0]);
+        return result;
+    }
+
+    Map<String, Object> stats() {
+        Index ix = index;
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("doctors", ix.docs.size());
+        m.put("grams", ix.postings.size());
+        m.put("queries", queries.get());
+        m.put("updates", updates.get());
+        return m;
+    }
+
+    private static int weight(int fields) {
+        return ((fields & NAME) != 0 ? 3 : 0) + ((fields & DEPT) != 0 ? 2 : 0) + ((fields & INFO) != 0 ? 1 : 0);
+    }
+
+    private static String field(DoctorCatalog.Doctor d, int field) {
+        switch (field) {
+            case NAME: return d.name;
+            case DEPT: return d.dept;
+            default: return d.info;
+        }
+    }
+
+    private static Map<String, Integer> grams(DoctorCatalog.Doctor d) {
+        Map<String, Integer> grams = new HashMap<>();
+        addGrams(grams, d.name, NAME);
+        addGrams(grams, d.dept, DEPT);
+        addGrams(grams, d.info, INFO);
+        return grams;
+    }
+
+    private static void addGrams(Map<String, Integer> grams, String text, int field) {
+        if (text == null) return;
+        String s = normalize(text);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) continue;
+            grams.merge(String.valueOf(c), field, (a, b) -> a | b);
+            if (i + 1 < s.length() && !Character.isWhitespace(s.charAt(i + 1))) {
+                grams.merge(s.substring(i, i + 2), field, (a, b) -> a | b);
+            }
+        }
+    }
+
+    // bigrams when the query has any, otherwise its unigrams
+    private static Set<String> queryGrams(String q) {
+        Set<String> bigrams = new LinkedHashSet<>();
+        Set<String> unigrams = new LinkedHashSet<>();
+        for (int i = 0; i < q.length(); i++) {
+            char c = q.charAt(i);
+            if (Character.isWhitespace(c)) continue;
+            unigrams.add(String.valueOf(c));
+            if (i + 1 < q.length() && !Character.isWhitespace(q.charAt(i + 1))) bigrams.add(q.substring(i, i + 2));
+        }
+        return bigrams.isEmpty() ? unigrams : bigrams;
+    }
+
+    private static String normalize(String s) {
+        return s == null ? "" : s.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,187 @@
+package com.habms.server;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One request in progress: the caller's session, the response being built and the stream it
+ * is written to. Actions either fill the response map, which is written as one JSON line when
+ * the action returns, or stream a listing with {@link #list(Lister)}.
+ */
+class Exchange {
+    static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm");
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    // responses are written into the connection's stream, which must stay open for the newline; the
+    // stream decides when a chunk leaves, so a reply and its newline go out together
+    private static final ObjectWriter lineWriter = mapper.writer()
+            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .without(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+
+    interface Lister {
+        // writes the rows of one page to the sink and returns the next cursor (null on the last page)
+        String write(Database.RowSink sink) throws SQLException, IOException;
+    }
+
+    final Session session;
+    final ResponseStream out;
+    // file that followed the request line, null unless the request announced an attachment
+    final FileTransfer.Upload upload;
+    private final Map<String, Object> resp = new HashMap<>();
+    private boolean written = false;
+
+    Exchange(Session session, FileTransfer.Upload upload, ResponseStream out) {
+        this.session = session;
+        this.upload = upload;
+        this.out = out;
+    }
+
+    String user() { return session.getUser(); }
+
+    String role() { return session.getRole(); }
+
+    void ok() { resp.put("status", "OK"); }
+
+    void error(String message) {
+        resp.put("status", "ERR");
+        resp.put("message", message);
+    }
+
+    void put(String key, Object value) { resp.put(key, value); }
+
+    boolean requireLogin() {
+        if (user() != null) return true;
+        error("请先登录");
+        return false;
+    }
+
+    boolean requireAdmin() {
+        if (user() != null && "ADMIN".equals(role())) return true;
+        error("需要管理员权限");
+        return false;
+    }
+
+    /**
+     * Paging parameters of a listing, or null after reporting invalid input.
+     */
+    Page.Query page(Requests.Paged p) {
+        int limit = p.limit == null ? ServerConfig.PAGE_SIZE : p.limit;
+        limit = Math.max(1, Math.min(limit, ServerConfig.PAGE_MAX));
+        try {
+            return new Page.Query(p.from == null ? null : LocalDateTime.parse(p.from, TIME), p.to == null ? null : LocalDateTime.parse(p.to, TIME), p.after, limit);
+        } catch (DateTimeParseException ex) {
+            error("时间格式应为 yyyy-MM-ddTHH:mm");
+        } catch (IllegalArgumentException ex) {
+            error(ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Streams {"status":"OK","data":[rows...],"nextCursor":...} row by row. If the lister fails,
+     * the generator is dropped without closing it: nothing it still buffers is written and the
+     * reply is never completed, so the caller can replace it by an error reply if no chunk has
+     * left yet, and otherwise the client sees a line cut off, never a well-formed OK.
+     */
+    void list(Lister lister) throws SQLException, IOException {
+        written = true;
+        JsonGenerator g = mapper.getFactory().createGenerator(out);
+        g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        g.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        g.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        g.writeStartObject();
+        g.writeStringField("status", "OK");
+        g.writeArrayFieldStart("data");
+        String next = lister.write(row -> {
+            g.writeStartObject();
+            for (Map.Entry<String, String> e : row.entrySet()) g.writeStringField(e.getKey(), e.getValue());
+            g.writeEndObject();
+        });
+        g.writeEndArray();
+        if (next != null) g.writeStringField("nextCursor", next);
+        g.writeEndObject();
+        g.writeRaw('\n');
+        g.close();
+    }
+
+    /**
+     * The uploaded file, or null after reporting why it cannot be used. {@code announced} is the
+     * size the request gave in its attachment field.
+     */
+    Path uploaded(long announced) {
+        if (upload == null) { error("缺少上传文件"); return null; }
+        if (upload.error() != null) { error(upload.error()); return null; }
+        if (upload.size() != announced) { error("上传文件大小不符"); return null; }
+        return upload.file();
+    }
+
+    /**
+     * Sends {@code file} as the response: a JSON header with the file name and size, then the
+     * file as chunk frames (see {@link FileTransfer}).
+     */
+    void sendFile(Path file, String filename) throws IOException {
+        resp.put("status", "OK");
+        resp.put("filename", filename);
+        resp.put("attachment", Files.size(file));
+        written = true;
+        writeLine(out, resp);
+        try (InputStream in = Files.newInputStream(file)) {
+            FileTransfer.writeFrames(in, out);
+        }
+    }
+
+    /**
+     * Sends several files as one response: the header lists them under {@code files} (name and
+     * size) with {@code attachment} set to their total size, then each file follows as its own
+     * run of frames and terminator, in the listed order.
+     */
+    void sendFiles(Map<String, Path> files) throws IOException {
+        List<Map<String, Object>> list = new ArrayList<>();
+        long total = 0;
+        for (Map.Entry<String, Path> e : files.entrySet()) {
+            long size = Files.size(e.getValue());
+            Map<String, Object> f = new LinkedHashMap<>();
+            f.put("filename", e.getKey());
+            f.put("size", size);
+            list.add(f);
+            total += size;
+        }
+        resp.put("status", "OK");
+        resp.put("files", list);
+        resp.put("attachment", total);
+        written = true;
+        writeLine(out, resp);
+        for (Path file : files.values()) {
+            try (InputStream in = Files.newInputStream(file)) {
+                FileTransfer.writeFrames(in, out);
+            }
+        }
+    }
+
+    /**
+     * Writes the response map unless the action already streamed its response.
+     */
+    void finish() throws IOException {
+        if (!written) writeLine(out, resp);
+    }
+
+    static void writeLine(ResponseStream out, Map<String, Object> resp) throws IOException {
+        lineWriter.writeValue(out, resp);
+        out.write('\n');
+    }
+}
@@ -0,0 +1,317 @@
+package com.habms.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Excel import/export, the warehouse dump and the PDF reports.
+ */
+final class FileActions {
+    private FileActions() {}
+
+    /**
+     * Produces a file into the given stream.
+     */
+    private interface FileContent {
+        void writeTo(OutputStream out) throws SQLException, IOException;
+    }
+
+    /**
+     * Replies with a generated file: as chunk frames after the response line when the request
+     * asked for {@code "transfer":"chunked"}, otherwise Base64-encoded in the response.
+     */
+    private static void sendFile(Exchange ex, String transfer, String filename, FileContent content) throws SQLException, IOException {
+        if ("chunked".equals(transfer)) {
+            Path tmp = Files.createTempFile("habms-file-", ".tmp");
+            try {
+                try (OutputStream fout = Files.newOutputStream(tmp)) { content.writeTo(fout); }
+                ex.sendFile(tmp, filename);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } else {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            content.writeTo(bout);
+            ex.ok(); ex.put("content", Base64.getEncoder().encodeToString(bout.toByteArray())); ex.put("filename", filename);
+        }
+    }
+
+    /**
+     * Imports the "Doctors" sheet (name, dept, info) and then the "Schedules" sheet (doctor id or
+     * name, start, end, capacity, note) in one transaction. Doctors are matched by name and
+     * updated; schedule rows that are incomplete, unparsable, for an unknown doctor or
+     * overlapping are skipped and counted.
+     */
+    static void importDoctors(Requests.ImportDoctorsXls req, Exchange ex) throws SQLException, IOException {
+        if (!ex.requireAdmin()) return;
+        Path legacy = null;
+        try {
+            Path file;
+            if (req.attachment != null) {
+                file = ex.uploaded(req.attachment);
+                if (file == null) return;
+            } else {
+                if (req.content == null) { ex.error("缺少content字段"); return; }
+                legacy = Files.createTempFile("habms-import-", ".tmp");
+                Files.write(legacy, Base64.getDecoder().decode(req.content));
+                file = legacy;
+            }
+            Map<String, Object> result = importFile(file, JobManager.Progress.NONE);
+            ex.ok();
+            result.forEach(ex::put);
+        } catch (IOException | IllegalArgumentException e) {
+            // not a workbook, or broken Base64 in the legacy content field
+            ex.error("Excel 格式无效或读取失败");
+        } finally {
+            if (legacy != null) Files.deleteIfExists(legacy);
+        }
+    }
+
+    /**
+     * The import as a background job. The uploaded file (or the legacy Base64 content) is moved
+     * into the job's directory now, since the upload is deleted once this request ends. Returns
+     * null after replying with an error.
+     */
+    static JobManager.Work importDoctorsJob(Requests.ImportDoctorsXls req, Long attachment, Exchange ex, JobManager.Job job) throws IOException {
+        Path input = job.dir.resolve("import.xlsx");
+        if (attachment != null) {
+            Path file = ex.uploaded(attachment);
+            if (file == null) return null;
+            Files.move(file, input);
+        } else {
+            if (req.content == null) { ex.error("缺少content字段"); return null; }
+            try {
+                Files.write(input, Base64.getDecoder().decode(req.content));
+            } catch (IllegalArgumentException e) {
+                ex.error("Excel 格式无效或读取失败");
+                return null;
+            }
+        }
+        return j -> {
+            try {
+                importFile(input, j).forEach(j::put);
+            } catch (IOException e) {
+                throw new JobManager.Failure("Excel 格式无效或读取失败", e);
+            } finally {
+                Files.deleteIfExists(input);
+            }
+        };
+    }
+
+    private static Map<String, Object> importFile(Path file, JobManager.Progress progress) throws SQLException, IOException {
+        long[] rows = {0};
+        int[] skipped = {0};
+        DoctorImport.Result r = Database.importDoctors(imp -> {
+            WorkbookRows.read(file, "Doctors", (rowNum, cells) -> {
+                progress.progress(++rows[0], -1);
+                String dname = cell(cells, 0);
+                if (dname == null || dname.isEmpty()) return;
+                String dept = cell(cells, 1);
+                String info = cell(cells, 2);
+                imp.doctor(dname, dept == null ? "" : dept, info == null ? "" : info);
+            });
+            WorkbookRows.read(file, "Schedules", (rowNum, cells) -> {
+                progress.progress(++rows[0], -1);
+                String didCell = cell(cells, 0);
+                String startS = cell(cells, 1);
+                String endS = cell(cells, 2);
+                if (didCell == null || startS == null || endS == null) { skipped[0]++; return; }
+                int did = imp.doctorId(didCell);
+                LocalDateTime start, end;
+                try {
+                    start = LocalDateTime.parse(startS, Exchange.TIME);
+                    end = LocalDateTime.parse(endS, Exchange.TIME);
+                } catch (DateTimeParseException e) {
+                    skipped[0]++;
+                    return;
+                }
+                int cap = 1; try { cap = Math.max(1, Integer.parseInt(cell(cells, 3))); } catch (Exception ignore) {}
+                String note = cell(cells, 4);
+                if (did <= 0 || !imp.schedule(did, start, end, note == null ? "" : note, cap)) skipped[0]++;
+            });
+        });
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("addedDoctors", r.addedDoctors);
+        result.put("updatedDoctors", r.updatedDoctors);
+        result.put("addedSchedules", r.addedSchedules);
+        result.put("skippedRows", skipped[0]);
+        return result;
+    }
+
+    private static String cell(List<String> cells, int idx) {
+        if (idx >= cells.size()) return null;
+        String v = cells.get(idx);
+        return v == null ? null : v.trim();
+    }
+
+    static void exportAppointments(Requests.ExportAppointmentsXls req, Exchange ex) throws SQLException, IOException {
+        if (!ex.requireAdmin()) return;
+        LocalDateTime[] range = exportRange(req, ex);
+        if (range == null) return;
+        String dept = exportDept(req);
+        sendFile(ex, req.transfer, "appointments.xlsx", out -> writeAppointments(range[0], range[1], dept, out, JobManager.Progress.NONE));
+    }
+
+    static JobManager.Work exportAppointmentsJob(Requests.ExportAppointmentsXls req, Exchange ex) {
+        LocalDateTime[] range = exportRange(req, ex);
+        if (range == null) return null;
+        String dept = exportDept(req);
+        return job -> {
+            try (OutputStream out = Files.newOutputStream(job.file("appointments.xlsx"))) {
+                writeAppointments(range[0], range[1], dept, out, job);
+            }
+        };
+    }
+
+    // {from, to}, either null when open; null after replying with an error
+    private static LocalDateTime[] exportRange(Requests.ExportAppointmentsXls req, Exchange ex) {
+        try {
+            return new LocalDateTime[]{
+                    req.from == null ? null : LocalDateTime.parse(req.from, Exchange.TIME),
+                    req.to == null ? null : LocalDateTime.parse(req.to, Exchange.TIME)};
+        } catch (DateTimeParseException e) {
+            ex.error("时间格式应为 yyyy-MM-ddTHH:mm");
+            return null;
+        }
+    }
+
+    private static String exportDept(Requests.ExportAppointmentsXls req) {
+        return req.dept == null || req.dept.trim().isEmpty() ? null : req.dept.trim();
+    }
+
+    private static void writeAppointments(LocalDateTime from, LocalDateTime to, String dept, OutputStream out, JobManager.Progress progress) throws SQLException, IOException {
+        // only the last EXPORT_ROW_WINDOW rows stay in memory; older ones are flushed to a temp file
+        SXSSFWorkbook wb = new SXSSFWorkbook(ServerConfig.EXPORT_ROW_WINDOW);
+        try {
+            wb.setCompressTempFiles(true);
+            Sheet s = wb.createSheet("Appointments");
+            Row header = s.createRow(0);
+            String[] heads = new String[]{"id","doctor_id","doctor_name","dept","patient_username","patient_name","appt_time"};
+            for (int i=0;i<heads.length;i++) header.createCell(i).setCellValue(heads[i]);
+            int[] r = {1};
+            Database.exportAppointments(from, to, dept, a -> {
+                Row row = s.createRow(r[0]++);
+                for (int c=0;c<heads.length;c++) row.createCell(c).setCellValue(a.getOrDefault(heads[c], ""));
+                progress.progress(r[0] - 1, -1);
+            });
+            wb.write(out);
+        } finally {
+            wb.dispose();
+            wb.close();
+        }
+    }
+
+    /**
+     * Dumps doctors, schedules and appointments for the data warehouse as gzip CSV or NDJSON
+     * files (see {@link DataDump}). With {@code since} only rows changed from then on are
+     * included, plus a deletions file; {@code nextSince} is the value to pass next time. Rows
+     * may repeat between consecutive dumps, so consumers should upsert by id.
+     */
+    static void exportDump(Requests.ExportDump req, Exchange ex) throws SQLException, IOException {
+        if (!ex.requireAdmin()) return;
+        if (!"chunked".equals(req.transfer)) { ex.error("数据导出仅支持分块传输"); return; }
+        DataDump.Format format = req.format == null ? DataDump.Format.CSV : DataDump.Format.of(req.format);
+        if (format == null) { ex.error("不支持的导出格式: " + req.format); return; }
+        LocalDateTime since;
+        try {
+            since = req.since == null ? null : LocalDateTime.parse(req.since, Exchange.TIME);
+        } catch (DateTimeParseException e) {
+            ex.error("时间格式应为 yyyy-MM-ddTHH:mm");
+            return;
+        }
+        List<DataDump.Table> tables = new ArrayList<>();
+        for (DataDump.Table t : DataDump.Table.values()) {
+            if (t == DataDump.Table.DELETIONS) continue;
+            if (req.tables == null || req.tables.contains(t.name)) tables.add(t);
+        }
+        if (tables.isEmpty()) { ex.error("未指定要导出的表"); return; }
+        if (since != null && tables.contains(DataDump.Table.APPOINTMENTS)) tables.add(DataDump.Table.DELETIONS);
+        // taken before the dump starts and moved back by the overlap, so the next dump also sees rows
+        // written by transactions that were still open while this one ran
+        LocalDateTime nextSince = LocalDateTime.now().minus(ServerConfig.DUMP_OVERLAP_MS, ChronoUnit.MILLIS).truncatedTo(ChronoUnit.MINUTES);
+        List<DataDump.Part> parts = DataDump.dump(tables, format, since);
+        try {
+            Map<String, Path> files = new LinkedHashMap<>();
+            Map<String, Long> rows = new LinkedHashMap<>();
+            for (DataDump.Part p : parts) {
+                files.put(p.filename, p.file);
+                rows.put(p.table.name, p.rows);
+            }
+            ex.put("format", format.extension);
+            ex.put("nextSince", nextSince.format(Exchange.TIME));
+            ex.put("rows", rows);
+            ex.sendFiles(files);
+        } finally {
+            DataDump.delete(parts);
+        }
+    }
+
+    /**
+     * Builds one of the {@link Reports} (summary unless {@code type} says otherwise) and sends it
+     * like the Excel export.
+     */
+    static void reportPdf(Requests.GenerateReportPdf req, Exchange ex) throws SQLException, IOException {
+        if (!ex.requireAdmin()) return;
+        Reports.Spec spec = reportSpec(req, ex);
+        if (spec == null) return;
+        sendFile(ex, req.transfer, "report.pdf", out -> Reports.write(spec, out, JobManager.Progress.NONE));
+    }
+
+    static JobManager.Work reportPdfJob(Requests.GenerateReportPdf req, Exchange ex) throws SQLException {
+        Reports.Spec spec = reportSpec(req, ex);
+        if (spec == null) return null;
+        return job -> {
+            try (OutputStream out = Files.newOutputStream(job.file("report.pdf"))) {
+                Reports.write(spec, out, job);
+            }
+        };
+    }
+
+    // the report to build, with the range widened to whole hours; null after replying with an error
+    private static Reports.Spec reportSpec(Requests.GenerateReportPdf req, Exchange ex) throws SQLException {
+        Reports.Type type = req.type == null ? Reports.Type.SUMMARY : Reports.Type.of(req.type);
+        if (type == null) { ex.error("未知报告类型: " + req.type); return null; }
+        LocalDateTime from, to;
+        try {
+            from = req.from == null ? null : LocalDateTime.parse(req.from, Exchange.TIME).truncatedTo(ChronoUnit.HOURS);
+            to = req.to == null ? null : LocalDateTime.parse(req.to, Exchange.TIME);
+        } catch (DateTimeParseException e) {
+            ex.error("时间格式应为 yyyy-MM-ddTHH:mm");
+            return null;
+        }
+        if (to != null && !to.truncatedTo(ChronoUnit.HOURS).equals(to)) to = to.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+        String dept = req.dept == null || req.dept.trim().isEmpty() ? null : req.dept.trim();
+        switch (type) {
+            case DOCTOR:
+                if (req.doctorId == null || Database.getDoctor(req.doctorId) == null) { ex.error("医生不存在"); return null; }
+                break;
+            case DEPT:
+                if (dept == null) { ex.error("缺少 dept"); return null; }
+                break;
+            case DAILY:
+                if (from == null || to == null || !to.isAfter(from)) { ex.error("每日统计需要有效的 from 和 to"); return null; }
+                if (ChronoUnit.HOURS.between(from, to) > ServerConfig.STATS_MAX_HOURS) {
+                    ex.error("时间范围过大，最多 " + ServerConfig.STATS_MAX_HOURS + " 小时");
+                    return null;
+                }
+                break;
+            default:
+        }
+        return new Reports.Spec(type, from, to, req.doctorId, dept);
+    }
+}
@@ -0,0 +1,168 @@
+package com.habms.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Chunked file transfer. A JSON line carrying an {@code "attachment"} field (the file size in
+ * bytes) is followed by the file as a sequence of frames
+ * <pre>
+ * #&lt;length&gt; &lt;crc32 hex&gt;\n&lt;length bytes&gt;
+ * </pre>
+ * and a terminating {@code #0 0\n}. Requests use it to upload a file, responses to a request
+ * carrying {@code "transfer":"chunked"} to download one. Files never pass through a JSON string.
+ */
+final class FileTransfer {
+    static final int CHUNK_BYTES = 64 * 1024;
+    // a frame may not announce more than this; anything larger is a protocol error
+    static final int MAX_FRAME_BYTES = 1024 * 1024;
+    private static final byte[] END = "#0 0\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String ATTACHMENT_KEY = "\"attachment\"";
+
+    private FileTransfer() {}
+
+    /**
+     * Whether a request line announces an upload: an {@code "attachment"} key followed by a number.
+     * The line is only scanned, not parsed, so this stays cheap enough for the IO thread; the word
+     * as a string value, or escaped inside one, does not count.
+     */
+    static boolean announcesAttachment(String line) {
+        for (int i = line.indexOf(ATTACHMENT_KEY); i >= 0; i = line.indexOf(ATTACHMENT_KEY, i + 1)) {
+            if (i > 0 && line.charAt(i - 1) == '\\') continue;
+            int j = skipSpaces(line, i + ATTACHMENT_KEY.length());
+            if (j >= line.length() || line.charAt(j) != ':') continue;
+            j = skipSpaces(line, j + 1);
+            if (j < line.length() && Character.isDigit(line.charAt(j))) return true;
+        }
+        return false;
+    }
+
+    private static int skipSpaces(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    /**
+     * Writes {@code in} to {@code out} as frames followed by the terminator.
+     */
+    static void writeFrames(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[CHUNK_BYTES];
+        CRC32 crc = new CRC32();
+        int n;
+        while ((n = in.readNBytes(buf, 0, buf.length)) > 0) {
+            crc.reset();
+            crc.update(buf, 0, n);
+            out.write(("#" + n + " " + Long.toHexString(crc.getValue()) + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(buf, 0, n);
+        }
+        out.write(END);
+    }
+
+    /**
+     * Frame header {@code #<length> <crc>} without the newline; returns {length, crc} or null if malformed.
+     */
+    static long[] parseHeader(String header) {
+        if (!header.startsWith("#")) return null;
+        int sp = header.indexOf(' ');
+        if (sp < 0) return null;
+        try {
+            long len = Long.parseLong(header.substring(1, sp));
+            long crc = Long.parseLong(header.substring(sp + 1), 16);
+            if (len < 0 || len > MAX_FRAME_BYTES) return null;
+            return new long[]{len, crc};
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * An uploaded file being spooled to a temporary file. Written by the IO thread as frames
+     * arrive, read by the worker once {@link #isComplete()}. A bad checksum or an oversized
+     * upload does not break the connection: the remaining frames are consumed and discarded and
+     * the request is answered with {@link #error()}.
+     */
+    static final class Upload {
+        private final long maxBytes;
+        private final CRC32 crc = new CRC32();
+        private Path file;
+        private FileChannel channel;
+        private long size = 0;
+        private volatile String error;
+        private volatile boolean complete = false;
+
+        Upload(long maxBytes) {
+            this.maxBytes = maxBytes;
+            try {
+                file = Files.createTempFile("habms-upload-", ".tmp");
+                channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            } catch (IOException ex) {
+                error = "无法保存上传文件";
+            }
+        }
+
+        void startFrame() {
+            crc.reset();
+        }
+
+        // appends part of the current frame; consumes the buffer even after an error
+        synchronized void write(ByteBuffer data) {
+            if (error != null || channel == null) { data.position(data.limit()); return; }
+            size += data.remaining();
+            if (size > maxBytes) {
+                error = "上传文件过大";
+                data.position(data.limit());
+                return;
+            }
+            crc.update(data.duplicate());
+            try {
+                while (data.hasRemaining()) channel.write(data);
+            } catch (IOException ex) {
+                error = "无法保存上传文件";
+            }
+        }
+
+        void endFrame(long expectedCrc) {
+            if (error == null && crc.getValue() != expectedCrc) error = "文件分块校验失败";
+        }
+
+        synchronized void abort(String message) {
+            if (error == null) error = message;
+            finish();
+        }
+
+        synchronized void finish() {
+            closeChannel();
+            complete = true;
+        }
+
+        boolean isComplete() { return complete; }
+
+        String error() { return error; }
+
+        long size() { return size; }
+
+        Path file() { return file; }
+
+        synchronized void delete() {
+            closeChannel();
+            if (file != null) {
+                try { Files.deleteIfExists(file); } catch (IOException ignored) {}
+                file = null;
+            }
+        }
+
+        private void closeChannel() {
+            if (channel == null) return;
+            try { channel.close(); } catch (IOException ignored) {}
+            channel = null;
+        }
+    }
+}
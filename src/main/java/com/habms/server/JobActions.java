@@ -0,0 +1,91 @@
+package com.habms.server;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Background jobs: submitting the file actions to the {@link JobManager}, polling their state
+ * and fetching their results.
+ */
+final class JobActions {
+    private JobActions() {}
+
+    /**
+     * Runs the request in {@code job} (import_doctors_xls, export_appointments_xls or
+     * generate_report_pdf) in the background and replies with its id at once. The import's file
+     * is sent with the submit_job request itself.
+     */
+    static void submitJob(Requests.SubmitJob req, Exchange ex) throws SQLException, IOException {
+        if (!ex.requireAdmin()) return;
+        Requests.Request inner;
+        try {
+            inner = req.job == null ? null : ActionRegistry.convert(req.job);
+        } catch (IllegalArgumentException e) {
+            inner = null;
+        }
+        if (inner == null) { ex.error("未知任务类型"); return; }
+        String type = ActionRegistry.actionName(inner);
+        JobManager.Job job = JobManager.create(type, ex.user());
+        JobManager.Work work = null;
+        try {
+            switch (type) {
+                case "import_doctors_xls": work = FileActions.importDoctorsJob((Requests.ImportDoctorsXls) inner, req.attachment, ex, job); break;
+                case "export_appointments_xls": work = FileActions.exportAppointmentsJob((Requests.ExportAppointmentsXls) inner, ex); break;
+                case "generate_report_pdf": work = FileActions.reportPdfJob((Requests.GenerateReportPdf) inner, ex); break;
+                default: ex.error("该操作不支持后台执行: " + type);
+            }
+        } finally {
+            if (work == null) JobManager.discard(job);
+        }
+        if (work == null) return;
+        if (!JobManager.start(job, work)) {
+            JobManager.discard(job);
+            ex.error("后台任务队列已满，请稍后再试");
+            return;
+        }
+        ex.ok();
+        ex.put("jobId", job.id);
+        ex.put("state", job.state().name());
+    }
+
+    static void jobStatus(Requests.JobStatus req, Exchange ex) {
+        if (!ex.requireAdmin()) return;
+        JobManager.Job job = ownJob(req.jobId, ex);
+        if (job == null) return;
+        ex.ok();
+        ex.put("data", job.status());
+    }
+
+    /**
+     * Replies with the result fields of a finished job; its files, if any, follow as chunk frames
+     * as in export_dump. Results can be fetched again until the job expires.
+     */
+    static void jobResult(Requests.JobResult req, Exchange ex) throws IOException {
+        if (!ex.requireAdmin()) return;
+        JobManager.Job job = ownJob(req.jobId, ex);
+        if (job == null) return;
+        switch (job.state()) {
+            case FAILED: ex.error(job.error()); return;
+            case DONE: break;
+            default: ex.error("任务尚未完成"); return;
+        }
+        // an error reply carries only its message, not the fields of the result it refuses
+        if (!job.files().isEmpty() && !"chunked".equals(req.transfer)) { ex.error("任务结果文件仅支持分块传输"); return; }
+        job.result().forEach(ex::put);
+        if (job.files().isEmpty()) { ex.ok(); return; }
+        ex.sendFiles(job.files());
+    }
+
+    /**
+     * The job with {@code jobId} if the caller submitted it; another admin's job is reported as
+     * missing, so job ids of exports and reports do not leak between accounts.
+     */
+    private static JobManager.Job ownJob(String jobId, Exchange ex) {
+        JobManager.Job job = JobManager.get(jobId);
+        if (job == null || !job.owner.equals(ex.user())) {
+            ex.error("任务不存在或已过期");
+            return null;
+        }
+        return job;
+    }
+}
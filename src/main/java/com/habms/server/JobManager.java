@@ -0,0 +1,242 @@
+package com.habms.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Background jobs for heavy admin work such as Excel import/export and the PDF report. Jobs run
+ * on their own small bounded executor of low-priority threads in the bulk {@link Lane}, so a long
+ * export neither blocks its connection nor takes a request worker or pooled connection away from
+ * bookings. Each job writes its files into
+ * its own directory under {@code habms.jobs.dir}; finished jobs and their files are removed
+ * {@code habms.jobs.ttlMs} after they end.
+ */
+final class JobManager {
+    enum State { QUEUED, RUNNING, DONE, FAILED }
+
+    /**
+     * Receives the progress of a job; {@code total} is -1 while unknown.
+     */
+    interface Progress {
+        Progress NONE = (done, total) -> {};
+
+        void progress(long done, long total);
+    }
+
+    interface Work {
+        void run(Job job) throws Exception;
+    }
+
+    /**
+     * A job failure whose message is shown to the client as is.
+     */
+    static final class Failure extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Failure(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    static final class Job implements Progress {
+        final String id;
+        final String type;
+        final String owner;
+        final Path dir;
+        final long createdAt = System.currentTimeMillis();
+        // result fields and files are written by the job thread before it publishes DONE through state
+        private final Map<String, Object> result = new LinkedHashMap<>();
+        private final Map<String, Path> files = new LinkedHashMap<>();
+        private volatile State state = State.QUEUED;
+        private volatile long done = 0;
+        private volatile long total = -1;
+        private volatile String error;
+        private volatile long finishedAt = 0;
+
+        private Job(String id, String type, String owner, Path dir) {
+            this.id = id;
+            this.type = type;
+            this.owner = owner;
+            this.dir = dir;
+        }
+
+        /**
+         * A file in the job's directory that is part of the result under {@code filename}.
+         */
+        Path file(String filename) {
+            Path p = dir.resolve(filename);
+            files.put(filename, p);
+            return p;
+        }
+
+        void put(String key, Object value) {
+            result.put(key, value);
+        }
+
+        @Override
+        public void progress(long done, long total) {
+            this.done = done;
+            this.total = total;
+        }
+
+        State state() { return state; }
+
+        String error() { return error; }
+
+        Map<String, Object> result() { return Collections.unmodifiableMap(result); }
+
+        Map<String, Path> files() { return Collections.unmodifiableMap(files); }
+
+        Map<String, Object> status() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("jobId", id);
+            m.put("type", type);
+            m.put("owner", owner);
+            m.put("state", state.name());
+            m.put("done", done);
+            m.put("total", total);
+            m.put("createdAt", createdAt);
+            if (finishedAt > 0) m.put("finishedAt", finishedAt);
+            if (error != null) m.put("error", error);
+            return m;
+        }
+    }
+
+    private static final Path root = Paths.get(ServerConfig.JOB_DIR);
+    private static final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(ServerConfig.JOB_THREADS, ServerConfig.JOB_THREADS,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(ServerConfig.JOB_QUEUE), r -> {
+                Thread t = Lane.BULK.threads("habms-job-").newThread(r);
+                // request workers go first when the CPU is contended
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }, new ThreadPoolExecutor.AbortPolicy());
+    private static final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(NioServer.namedThreads("habms-job-cleaner-"));
+    private static final AtomicLong submitted = new AtomicLong();
+    private static final AtomicLong rejected = new AtomicLong();
+    private static final AtomicLong completed = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static final AtomicLong expired = new AtomicLong();
+
+    static {
+        // job state is kept in memory only, so directories left by an earlier run belong to nobody
+        try (Stream<Path> old = Files.exists(root) ? Files.list(root) : Stream.empty()) {
+            old.forEach(JobManager::deleteTree);
+        } catch (IOException ex) {
+            System.err.println("清理旧任务目录失败: " + ex.getMessage());
+        }
+        long period = Math.max(1_000L, Math.min(60_000L, ServerConfig.JOB_TTL_MS / 4));
+        cleaner.scheduleWithFixedDelay(JobManager::expire, period, period, TimeUnit.MILLISECONDS);
+        ServerMetrics.register("jobs", JobManager::stats);
+    }
+
+    private JobManager() {}
+
+    /**
+     * Registers a job and creates its directory; the caller prepares its input and then either
+     * {@link #start starts} or {@link #discard discards} it.
+     */
+    static Job create(String type, String owner) throws IOException {
+        String id = UUID.randomUUID().toString();
+        Path dir = Files.createDirectories(root.resolve(id));
+        Job job = new Job(id, type, owner, dir);
+        jobs.put(id, job);
+        return job;
+    }
+
+    /**
+     * Queues the job; false if the job queue is full.
+     */
+    static boolean start(Job job, Work work) {
+        try {
+            executor.execute(() -> run(job, work));
+        } catch (RejectedExecutionException ex) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        submitted.incrementAndGet();
+        return true;
+    }
+
+    static void discard(Job job) {
+        jobs.remove(job.id);
+        deleteTree(job.dir);
+    }
+
+    static Job get(String id) {
+        return id == null ? null : jobs.get(id);
+    }
+
+    private static void run(Job job, Work work) {
+        job.state = State.RUNNING;
+        try {
+            work.run(job);
+            job.finishedAt = System.currentTimeMillis();
+            job.state = State.DONE;
+            completed.incrementAndGet();
+        } catch (Throwable ex) {
+            if (ex instanceof Failure) {
+                job.error = ex.getMessage();
+            } else {
+                ex.printStackTrace();
+                job.error = "任务执行失败";
+            }
+            job.finishedAt = System.currentTimeMillis();
+            job.state = State.FAILED;
+            failed.incrementAndGet();
+            // nothing of a failed job is ever downloaded
+            try (Stream<Path> left = Files.list(job.dir)) {
+                left.forEach(JobManager::deleteTree);
+            } catch (IOException ignore) {}
+        }
+    }
+
+    private static void expire() {
+        long cutoff = System.currentTimeMillis() - ServerConfig.JOB_TTL_MS;
+        for (Job job : jobs.values()) {
+            long finished = job.finishedAt;
+            if (finished > 0 && finished < cutoff && jobs.remove(job.id, job)) {
+                deleteTree(job.dir);
+                expired.incrementAndGet();
+            }
+        }
+    }
+
+    private static void deleteTree(Path path) {
+        try (Stream<Path> walk = Files.walk(path)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try { Files.deleteIfExists(p); } catch (IOException ignore) {}
+            });
+        } catch (IOException ignore) {}
+    }
+
+    private static Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("threads", ServerConfig.JOB_THREADS);
+        m.put("running", executor.getActiveCount());
+        m.put("queued", executor.getQueue().size());
+        m.put("retained", jobs.size());
+        m.put("submitted", submitted.get());
+        m.put("rejected", rejected.get());
+        m.put("completed", completed.get());
+        m.put("failed", failed.get());
+        m.put("expired", expired.get());
+        return m;
+    }
+}
@@ -0,0 +1,45 @@
+package com.habms.server;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Priority classes of requests. Each lane has its own worker pool in {@link NioServer} and its
+ * own cap on pooled database connections in {@link ConnectionPool}, so multi-second admin work
+ * cannot delay or starve patient bookings. The lane of a request follows from its action (see
+ * {@link ActionRegistry#laneOf}); threads outside the request path that do bulk work, such as
+ * background jobs, run in {@link #BULK} as well.
+ */
+enum Lane {
+    // reads and small admin edits: listings, search, login, schedules
+    INTERACTIVE("interactive"),
+    // writes patients wait on: book and cancel
+    BOOKING("booking"),
+    // imports, exports, reports and dumps
+    BULK("bulk");
+
+    private static final ThreadLocal<Lane> current = new ThreadLocal<>();
+
+    final String key;
+
+    Lane(String key) {
+        this.key = key;
+    }
+
+    /**
+     * The lane of the calling thread, or null for threads outside any lane (startup, housekeeping).
+     */
+    static Lane current() {
+        return current.get();
+    }
+
+    /**
+     * Named daemon threads that run in this lane.
+     */
+    ThreadFactory threads(String prefix) {
+        ThreadFactory base = NioServer.namedThreads(prefix);
+        return r -> base.newThread(() -> {
+            current.set(this);
+            r.run();
+        });
+    }
+}
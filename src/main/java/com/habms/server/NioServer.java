@@ -0,0 +1,310 @@
+package com.habms.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Selector based front end. A single IO thread accepts connections, reads and frames
+ * newline-delimited requests (spooling chunked uploads to temporary files) and writes
+ * responses; complete requests are handed to a bounded worker pool running {@link ServerHandler}.
+ * Each {@link Lane} has its own pool, so bookings never queue behind imports and exports.
+ * When a pool's queue is full, or too many connections are open, the client gets an
+ * immediate {@code busy} error instead of waiting.
+ */
+public class NioServer {
+    private static final int READ_BUFFER_BYTES = 16 * 1024;
+    private static final byte[] BUSY_REPLY = "{\"status\":\"ERR\",\"message\":\"busy\"}\n".getBytes(StandardCharsets.UTF_8);
+
+    private final int port;
+    private final int maxConnections;
+    private final ServerHandler handler = new ServerHandler();
+    private final Map<Lane, ThreadPoolExecutor> workers = new EnumMap<>(Lane.class);
+    private final Map<Lane, AtomicLong> rejectedRequests = new EnumMap<>(Lane.class);
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicLong refusedConnections = new AtomicLong();
+    private final Queue<ChannelContext> writeRequests = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = false;
+
+    /**
+     * {@code workerThreads} and {@code queueCapacity} size the interactive lane; the booking and
+     * bulk lanes are sized by {@link ServerConfig}.
+     */
+    public NioServer(int port, int workerThreads, int queueCapacity, int maxConnections) {
+        this.port = port;
+        this.maxConnections = maxConnections;
+        addLane(Lane.INTERACTIVE, workerThreads, queueCapacity);
+        addLane(Lane.BOOKING, ServerConfig.BOOKING_WORKERS, ServerConfig.BOOKING_QUEUE);
+        addLane(Lane.BULK, ServerConfig.BULK_WORKERS, ServerConfig.BULK_QUEUE);
+        ServerMetrics.register("server", this::stats);
+    }
+
+    private void addLane(Lane lane, int threads, int queueCapacity) {
+        workers.put(lane, new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), lane.threads("habms-" + lane.key + "-"), new ThreadPoolExecutor.AbortPolicy()));
+        rejectedRequests.put(lane, new AtomicLong());
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("connections", openConnections.get());
+        m.put("maxConnections", maxConnections);
+        m.put("refusedConnections", refusedConnections.get());
+        int threads = 0, active = 0, depth = 0, capacity = 0;
+        long completed = 0, rejected = 0;
+        Map<String, Object> lanes = new LinkedHashMap<>();
+        for (Map.Entry<Lane, ThreadPoolExecutor> e : workers.entrySet()) {
+            ThreadPoolExecutor w = e.getValue();
+            Map<String, Object> l = new LinkedHashMap<>();
+            l.put("workers", w.getMaximumPoolSize());
+            l.put("activeWorkers", w.getActiveCount());
+            l.put("queueDepth", w.getQueue().size());
+            l.put("queueCapacity", w.getQueue().size() + w.getQueue().remainingCapacity());
+            l.put("completedRequests", w.getCompletedTaskCount());
+            l.put("rejectedRequests", rejectedRequests.get(e.getKey()).get());
+            lanes.put(e.getKey().key, l);
+            threads += (Integer) l.get("workers");
+            active += (Integer) l.get("activeWorkers");
+            depth += (Integer) l.get("queueDepth");
+            capacity += (Integer) l.get("queueCapacity");
+            completed += (Long) l.get("completedRequests");
+            rejected += (Long) l.get("rejectedRequests");
+        }
+        m.put("workers", threads);
+        m.put("activeWorkers", active);
+        m.put("queueDepth", depth);
+        m.put("queueCapacity", capacity);
+        m.put("completedRequests", completed);
+        m.put("rejectedRequests", rejected);
+        m.put("lanes", lanes);
+        return m;
+    }
+
+    /**
+     * Binds the port and runs the event loop on the calling thread until {@link #stop()} is called.
+     */
+    public void serve() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        System.out.println("服务器监听端口 " + port);
+        try {
+            while (running) {
+                selector.select();
+                applyWriteRequests();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    try {
+                        if (key.isAcceptable()) accept();
+                        else {
+                            if (key.isReadable()) read(key);
+                            if (key.isValid() && key.isWritable()) write(key);
+                        }
+                    } catch (IOException ex) {
+                        if (key.channel() == serverChannel) ex.printStackTrace();
+                        else closeKey(key);
+                    }
+                }
+            }
+        } catch (ClosedSelectorException ex) {
+            // stop() closed the selector
+        } finally {
+            System.out.println("Server socket closed, 退出监听循环。");
+        }
+    }
+
+    public void stop() {
+        running = false;
+        try { if (serverChannel != null) serverChannel.close(); } catch (IOException ex) { ex.printStackTrace(); }
+        workers.values().forEach(ThreadPoolExecutor::shutdown);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        for (ThreadPoolExecutor w : workers.values()) {
+            try {
+                if (!w.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) w.shutdownNow();
+            } catch (InterruptedException ex) {
+                w.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (selector != null) {
+            for (SelectionKey key : selector.keys()) closeKey(key);
+            try { selector.close(); } catch (IOException ex) { ex.printStackTrace(); }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch;
+        while ((ch = serverChannel.accept()) != null) {
+            ch.configureBlocking(false);
+            if (openConnections.get() >= maxConnections) {
+                refusedConnections.incrementAndGet();
+                // best effort: the reply fits in the socket send buffer of a fresh connection
+                try { ch.write(ByteBuffer.wrap(BUSY_REPLY)); } catch (IOException ignored) {}
+                try { ch.close(); } catch (IOException ignored) {}
+                continue;
+            }
+            openConnections.incrementAndGet();
+            System.out.println("接入客户端: " + ch.getRemoteAddress());
+            ChannelContext ctx = new ChannelContext(ch);
+            ch.register(selector, SelectionKey.OP_READ, ctx);
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        ChannelContext ctx = (ChannelContext) key.attachment();
+        readBuffer.clear();
+        int n = ctx.channel().read(readBuffer);
+        if (n < 0) {
+            // peer finished sending; answer what is still queued, then close
+            ctx.markInputClosed();
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            // an upload cut short is now answered with an error
+            dispatch(ctx);
+            closeIfDone(key, ctx);
+            return;
+        }
+        readBuffer.flip();
+        if (!ctx.feed(readBuffer)) {
+            System.err.println("请求过大或文件分块格式错误，关闭连接: " + ctx.channel().getRemoteAddress());
+            closeKey(key);
+            return;
+        }
+        // a client pipelining faster than it is served waits in its socket buffer, not in server memory
+        if (ctx.readPaused()) key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        dispatch(ctx);
+    }
+
+    private void resumeReading(SelectionKey key, ChannelContext ctx) throws IOException {
+        if (!ctx.readPaused()) return;
+        if (!ctx.resumeReading()) {
+            System.err.println("请求过大或文件分块格式错误，关闭连接: " + ctx.channel().getRemoteAddress());
+            closeKey(key);
+            return;
+        }
+        if (!ctx.readPaused()) key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        dispatch(ctx);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        ChannelContext ctx = (ChannelContext) key.attachment();
+        if (ctx.flush()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            closeIfDone(key, ctx);
+        }
+    }
+
+    private void dispatch(ChannelContext ctx) {
+        ChannelContext.Incoming request;
+        while ((request = ctx.next()) != null) {
+            ChannelContext.Incoming taken = request;
+            Lane lane = ActionRegistry.laneOf(taken.line);
+            try {
+                workers.get(lane).execute(() -> process(ctx, taken));
+                return;
+            } catch (RejectedExecutionException ex) {
+                // saturated (or shutting down): answer right away rather than queueing without bound
+                rejectedRequests.get(lane).incrementAndGet();
+                if (taken.upload != null) taken.upload.delete();
+                ctx.enqueue(ByteBuffer.wrap(BUSY_REPLY));
+                ctx.finished();
+                requestWrite(ctx);
+            }
+        }
+    }
+
+    private void process(ChannelContext ctx, ChannelContext.Incoming request) {
+        try {
+            System.out.println("收到: " + request.line);
+            // chunks go out while the handler is still writing; a slow reader blocks this worker, not the server
+            ResponseStream out = new ResponseStream(chunk -> {
+                ctx.enqueue(chunk);
+                requestWrite(ctx);
+                ctx.awaitDrain(ServerConfig.STREAM_HIGH_WATER, ServerConfig.STREAM_LOW_WATER, ServerConfig.STREAM_WRITE_TIMEOUT_MS);
+            });
+            handler.handle(request.line, ctx.session(), request.upload, out);
+            out.flush();
+        } catch (IOException ex) {
+            // the response broke off midway; the client cannot resynchronize, so drop the connection
+            System.err.println("响应发送失败，关闭连接: " + ex.getMessage());
+            SelectionKey key = ctx.channel().keyFor(selector);
+            if (key != null) closeKey(key);
+            else if (ctx.close()) openConnections.decrementAndGet();
+        } finally {
+            if (request.upload != null) request.upload.delete();
+            ctx.finished();
+            requestWrite(ctx);
+            // a pipelined request may already be waiting behind this one
+            dispatch(ctx);
+        }
+    }
+
+    private void requestWrite(ChannelContext ctx) {
+        writeRequests.add(ctx);
+        selector.wakeup();
+    }
+
+    // interest ops are only changed on the IO thread; a finished request may also let a paused connection read again
+    private void applyWriteRequests() {
+        ChannelContext ctx;
+        while ((ctx = writeRequests.poll()) != null) {
+            SelectionKey key = ctx.channel().keyFor(selector);
+            if (key == null || !key.isValid()) continue;
+            try {
+                resumeReading(key, ctx);
+            } catch (IOException ex) {
+                closeKey(key);
+            }
+            if (!key.isValid()) continue;
+            if (ctx.hasOutput()) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            else closeIfDone(key, ctx);
+        }
+    }
+
+    private void closeIfDone(SelectionKey key, ChannelContext ctx) {
+        if (ctx.isInputClosed() && ctx.isIdle() && !ctx.hasOutput()) closeKey(key);
+    }
+
+    private void closeKey(SelectionKey key) {
+        key.cancel();
+        if (key.attachment() instanceof ChannelContext && ((ChannelContext) key.attachment()).close()) {
+            openConnections.decrementAndGet();
+        }
+    }
+
+    static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
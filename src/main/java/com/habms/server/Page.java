@@ -0,0 +1,48 @@
+package com.habms.server;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * Keyset pagination of listings. Rows are ordered by (time, id) and the cursor encodes the
+ * key of the last row returned, so the next page starts right after it with an index range
+ * scan instead of an OFFSET, and stays correct while rows are inserted or deleted.
+ */
+public final class Page {
+    private Page() {}
+
+    /**
+     * Page size, optional [from, to) time filter and the cursor of the previous page.
+     */
+    public static final class Query {
+        final LocalDateTime from;
+        final LocalDateTime to;
+        final LocalDateTime afterTime;
+        final int afterId;
+        final int limit;
+
+        public Query(LocalDateTime from, LocalDateTime to, String after, int limit) {
+            this.from = from;
+            this.to = to;
+            this.limit = limit;
+            if (after == null || after.isEmpty()) {
+                this.afterTime = null;
+                this.afterId = 0;
+            } else {
+                try {
+                    String key = new String(Base64.getUrlDecoder().decode(after), StandardCharsets.UTF_8);
+                    int bar = key.lastIndexOf('|');
+                    this.afterTime = LocalDateTime.parse(key.substring(0, bar));
+                    this.afterId = Integer.parseInt(key.substring(bar + 1));
+                } catch (RuntimeException ex) {
+                    throw new IllegalArgumentException("无效的分页游标");
+                }
+            }
+        }
+    }
+
+    static String cursor(LocalDateTime time, int id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((time + "|" + id).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,188 @@
+package com.habms.server;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Page layout for the PDF reports: headings, text lines and tables whose rows arrive one at a
+ * time, e.g. from a database cursor. A page is written out as soon as it is full and a table's
+ * header is repeated on the next one. Document content beyond {@code habms.report.memoryBytes}
+ * is kept in a scratch file, so the heap a report needs does not grow with its rows.
+ */
+final class PdfReport implements Closeable {
+    private static final PDRectangle SIZE = PDRectangle.A4;
+    private static final float MARGIN = 50;
+    private static final float TEXT_SIZE = 10;
+    private static final float HEADING_SIZE = 13;
+    private static final float TITLE_SIZE = 16;
+    private static final float LEADING = 15;
+
+    private final PDDocument doc;
+    private final ReportFont font;
+    private final PDFont pdFont;
+    private PDPageContentStream cs;
+    private float y;
+    private int pages = 0;
+    // current table: column x offsets and widths, and the header repeated after a page break
+    private float[] xs;
+    private float[] widths;
+    private String[] header;
+    private long rows = 0;
+
+    PdfReport(String title) throws IOException {
+        doc = new PDDocument(MemoryUsageSetting.setupMixed(ServerConfig.REPORT_MEMORY_BYTES));
+        try {
+            font = ReportFont.get();
+            pdFont = font.load(doc);
+            newPage();
+            write(MARGIN, TITLE_SIZE, title);
+            y -= LEADING;
+        } catch (IOException | RuntimeException ex) {
+            doc.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * {@code zh} if the report font can show it, otherwise {@code en}.
+     */
+    String label(String zh, String en) {
+        return font.canShow(zh) ? zh : en;
+    }
+
+    void heading(String text) throws IOException {
+        endTable();
+        y -= LEADING / 2;
+        ensureSpace(3);
+        write(MARGIN, HEADING_SIZE, text);
+    }
+
+    void text(String text) throws IOException {
+        ensureSpace(1);
+        write(MARGIN, TEXT_SIZE, text);
+    }
+
+    /**
+     * Starts a table; {@code weights} divide the page width between the columns.
+     */
+    void table(float[] weights, String... header) throws IOException {
+        float total = 0;
+        for (float w : weights) total += w;
+        float usable = SIZE.getWidth() - 2 * MARGIN;
+        xs = new float[weights.length];
+        widths = new float[weights.length];
+        float x = MARGIN;
+        for (int i = 0; i < weights.length; i++) {
+            xs[i] = x;
+            widths[i] = usable * weights[i] / total;
+            x += widths[i];
+        }
+        this.header = header;
+        ensureSpace(2);
+        writeRow(header);
+    }
+
+    /**
+     * Adds a row to the current table; cells too wide for their column are cut short.
+     */
+    void row(String... cells) throws IOException {
+        if (ensureSpace(1)) writeRow(header);
+        writeRow(cells);
+        rows++;
+    }
+
+    void endTable() {
+        xs = null;
+        widths = null;
+        header = null;
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    void save(OutputStream out) throws IOException {
+        finishPage();
+        doc.save(out);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (cs != null) cs.close();
+        } finally {
+            cs = null;
+            doc.close();
+        }
+    }
+
+    // starts a new page if fewer than n lines fit on this one; true if it did
+    private boolean ensureSpace(int lines) throws IOException {
+        if (y - lines * LEADING >= MARGIN + LEADING) return false;
+        newPage();
+        return true;
+    }
+
+    private void newPage() throws IOException {
+        finishPage();
+        PDPage page = new PDPage(SIZE);
+        doc.addPage(page);
+        pages++;
+        cs = new PDPageContentStream(doc, page);
+        y = SIZE.getHeight() - MARGIN;
+    }
+
+    private void finishPage() throws IOException {
+        if (cs == null) return;
+        // page number in the footer
+        cs.beginText();
+        cs.setFont(pdFont, 8);
+        cs.newLineAtOffset(SIZE.getWidth() / 2 - 10, MARGIN / 2);
+        cs.showText("- " + pages + " -");
+        cs.endText();
+        cs.close();
+        cs = null;
+    }
+
+    private void writeRow(String[] cells) throws IOException {
+        y -= LEADING;
+        cs.beginText();
+        cs.setFont(pdFont, TEXT_SIZE);
+        float x = 0;
+        for (int i = 0; i < xs.length && i < cells.length; i++) {
+            cs.newLineAtOffset(xs[i] - x, i == 0 ? y : 0);
+            x = xs[i];
+            cs.showText(fit(font.printable(cells[i]), TEXT_SIZE, widths[i] - 4));
+        }
+        cs.endText();
+    }
+
+    private void write(float x, float size, String text) throws IOException {
+        y -= size + (LEADING - TEXT_SIZE);
+        cs.beginText();
+        cs.setFont(pdFont, size);
+        cs.newLineAtOffset(x, y);
+        cs.showText(fit(font.printable(text), size, SIZE.getWidth() - x - MARGIN));
+        cs.endText();
+    }
+
+    // text cut to the given width, with "..." when anything was dropped
+    private String fit(String text, float size, float width) throws IOException {
+        if (width(text, size) <= width) return text;
+        int end = text.length();
+        while (end > 0 && width(text.substring(0, end) + "...", size) > width) end = text.offsetByCodePoints(end, -1);
+        return text.substring(0, end) + "...";
+    }
+
+    private float width(String text, float size) throws IOException {
+        return pdFont.getStringWidth(text) / 1000 * size;
+    }
+}
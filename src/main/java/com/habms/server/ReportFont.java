@@ -0,0 +1,115 @@
+package com.habms.server;
+
+import org.apache.fontbox.ttf.CmapLookup;
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeCollection;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The font of the PDF reports, resolved once from {@code habms.report.fonts}: the first entry
+ * that exists and parses wins. An entry is a TrueType file, or a collection (.ttc) optionally
+ * followed by {@code #FontName}; without a name the collection's first font is used. The parsed
+ * font stays open and is embedded as a subset into each report, so a report no longer probes or
+ * parses font files. Without a usable font reports fall back to Helvetica, with "?" for
+ * characters it cannot show.
+ */
+final class ReportFont {
+    private static final ReportFont instance = resolve();
+
+    // null when falling back to Helvetica
+    private final TrueTypeFont ttf;
+    private final CmapLookup cmap;
+    private final String source;
+
+    private ReportFont(TrueTypeFont ttf, CmapLookup cmap, String source) {
+        this.ttf = ttf;
+        this.cmap = cmap;
+        this.source = source;
+    }
+
+    static ReportFont get() {
+        return instance;
+    }
+
+    private static ReportFont resolve() {
+        for (String entry : ServerConfig.REPORT_FONTS.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) continue;
+            int hash = entry.indexOf('#');
+            File file = new File(hash < 0 ? entry : entry.substring(0, hash));
+            String name = hash < 0 ? null : entry.substring(hash + 1);
+            if (!file.isFile()) continue;
+            try {
+                TrueTypeFont ttf = open(file, name);
+                if (ttf == null) continue;
+                CmapLookup cmap = ttf.getUnicodeCmapLookup(false);
+                if (cmap == null) continue;
+                System.out.println("报告字体: " + entry);
+                return new ReportFont(ttf, cmap, entry);
+            } catch (IOException | RuntimeException ex) {
+                // e.g. OpenType with CFF outlines, which PDFBox cannot embed
+                System.err.println("无法加载报告字体 " + entry + ": " + ex.getMessage());
+            }
+        }
+        System.out.println("未找到可用的报告字体，PDF 报告将使用 Helvetica（中文显示为 ?）");
+        return new ReportFont(null, null, "Helvetica");
+    }
+
+    private static TrueTypeFont open(File file, String name) throws IOException {
+        String lower = file.getName().toLowerCase();
+        if (!lower.endsWith(".ttc")) return new TTFParser().parse(file);
+        // the collection must stay open as long as its fonts are used
+        TrueTypeCollection ttc = new TrueTypeCollection(file);
+        if (name != null) return ttc.getFontByName(name);
+        TrueTypeFont[] first = new TrueTypeFont[1];
+        ttc.processAllFonts(font -> {
+            if (first[0] == null) first[0] = font;
+        });
+        return first[0];
+    }
+
+    /**
+     * The font for one document; a TrueType font is embedded as a subset of the glyphs used.
+     */
+    PDFont load(PDDocument doc) throws IOException {
+        return ttf == null ? PDType1Font.HELVETICA : PDType0Font.load(doc, ttf, true);
+    }
+
+    /**
+     * Whether the font has a glyph for every character of {@code text}.
+     */
+    boolean canShow(String text) {
+        return text.codePoints().allMatch(this::hasGlyph);
+    }
+
+    /**
+     * {@code text} with every character the font cannot show replaced by "?".
+     */
+    String printable(String text) {
+        if (text == null) return "";
+        StringBuilder sb = new StringBuilder(text.length());
+        text.codePoints().forEach(cp -> {
+            if (Character.isISOControl(cp)) sb.append(' ');
+            else if (hasGlyph(cp)) sb.appendCodePoint(cp);
+            else sb.append('?');
+        });
+        return sb.toString();
+    }
+
+    private boolean hasGlyph(int cp) {
+        // WinAnsi covers printable ASCII in every case
+        if (cp >= 0x20 && cp < 0x7F) return true;
+        return cmap != null && cmap.getGlyphId(cp) != 0;
+    }
+
+    String source() {
+        return source;
+    }
+}
@@ -0,0 +1,172 @@
+package com.habms.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The PDF reports of generate_report_pdf. Counts come from the appointment rollups; appointment
+ * lists are streamed from a cursor straight into the {@link PdfReport}, row by row.
+ * <ul>
+ * <li>summary: appointments per department and per doctor</li>
+ * <li>doctor: one doctor's appointments in a range</li>
+ * <li>dept: a department's doctors with their counts, then its appointments in a range</li>
+ * <li>daily: appointments per day and department in a range</li>
+ * </ul>
+ */
+final class Reports {
+    enum Type {
+        SUMMARY("summary"), DOCTOR("doctor"), DEPT("dept"), DAILY("daily");
+
+        final String key;
+
+        Type(String key) {
+            this.key = key;
+        }
+
+        static Type of(String key) {
+            for (Type t : values()) {
+                if (t.key.equals(key)) return t;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * What to report on: the range is [from, to) in whole hours, either bound null when open
+     * (daily needs both); doctorId is for the doctor report, dept for the dept report.
+     */
+    static final class Spec {
+        final Type type;
+        final LocalDateTime from;
+        final LocalDateTime to;
+        final Integer doctorId;
+        final String dept;
+
+        Spec(Type type, LocalDateTime from, LocalDateTime to, Integer doctorId, String dept) {
+            this.type = type;
+            this.from = from;
+            this.to = to;
+            this.doctorId = doctorId;
+            this.dept = dept;
+        }
+    }
+
+    private static final float[] APPOINTMENT_COLUMNS = {3, 3, 3, 3};
+
+    private Reports() {}
+
+    static void write(Spec spec, OutputStream out, JobManager.Progress progress) throws SQLException, IOException {
+        try (PdfReport report = new PdfReport(title(spec))) {
+            switch (spec.type) {
+                case SUMMARY: summary(report); break;
+                case DOCTOR: doctor(report, spec, progress); break;
+                case DEPT: dept(report, spec, progress); break;
+                case DAILY: daily(report, spec); break;
+            }
+            report.save(out);
+        }
+    }
+
+    private static String title(Spec spec) throws SQLException {
+        ReportFont font = ReportFont.get();
+        String zh, en;
+        switch (spec.type) {
+            case DOCTOR: {
+                DoctorCatalog.Doctor d = Database.getDoctor(spec.doctorId);
+                String name = d == null ? "#" + spec.doctorId : d.name + " (" + d.dept + ")";
+                zh = "医生预约报告: " + name;
+                en = "Doctor report: " + name;
+                break;
+            }
+            case DEPT: zh = "科室预约报告: " + spec.dept; en = "Department report: " + spec.dept; break;
+            case DAILY: zh = "每日预约统计"; en = "Daily appointments"; break;
+            default: zh = "医院预约统计报告"; en = "HABMS Report";
+        }
+        String title = font.canShow(zh) ? zh : en;
+        if (spec.from != null || spec.to != null) {
+            title += "  " + (spec.from == null ? "" : spec.from.format(Exchange.TIME)) + " ~ " + (spec.to == null ? "" : spec.to.format(Exchange.TIME));
+        }
+        return title;
+    }
+
+    private static void summary(PdfReport report) throws SQLException, IOException {
+        report.heading(report.label("各科室预约量", "Appointments per department"));
+        report.table(new float[]{3, 1}, report.label("科室", "Dept"), report.label("预约数", "Appointments"));
+        for (Map.Entry<String, Integer> e : new TreeMap<>(Database.getAppointmentsCountByDept()).entrySet()) {
+            report.row(e.getKey(), String.valueOf(e.getValue()));
+        }
+        report.heading(report.label("医生工作量", "Doctor workload"));
+        report.table(new float[]{3, 2, 1}, report.label("医生", "Doctor"), report.label("科室", "Dept"), report.label("预约数", "Appointments"));
+        for (Map<String, String> d : Database.getDoctorWorkload()) {
+            report.row(d.get("doctor_name"), d.get("dept"), d.get("appointments"));
+        }
+    }
+
+    private static void doctor(PdfReport report, Spec spec, JobManager.Progress progress) throws SQLException, IOException {
+        long total = Database.getAppointmentsPerDoctor(spec.from, spec.to).getOrDefault(spec.doctorId, 0L);
+        report.text(report.label("预约数: ", "Appointments: ") + total);
+        appointments(report, spec, null, spec.doctorId, total, progress);
+    }
+
+    private static void dept(PdfReport report, Spec spec, JobManager.Progress progress) throws SQLException, IOException {
+        Map<Integer, Long> counts = Database.getAppointmentsPerDoctor(spec.from, spec.to);
+        List<DoctorCatalog.Doctor> doctors = new ArrayList<>();
+        for (DoctorCatalog.Doctor d : Database.getDoctors()) {
+            if (spec.dept.equals(d.dept)) doctors.add(d);
+        }
+        doctors.sort((a, b) -> Long.compare(counts.getOrDefault(b.id, 0L), counts.getOrDefault(a.id, 0L)));
+        long total = 0;
+        report.heading(report.label("医生工作量", "Doctor workload"));
+        report.table(new float[]{3, 1}, report.label("医生", "Doctor"), report.label("预约数", "Appointments"));
+        for (DoctorCatalog.Doctor d : doctors) {
+            long n = counts.getOrDefault(d.id, 0L);
+            total += n;
+            report.row(d.name, String.valueOf(n));
+        }
+        report.text(report.label("合计: ", "Total: ") + total);
+        appointments(report, spec, spec.dept, null, total, progress);
+    }
+
+    // the appointment list, streamed from the cursor; total is only used for progress
+    private static void appointments(PdfReport report, Spec spec, String dept, Integer doctorId, long total,
+                                     JobManager.Progress progress) throws SQLException, IOException {
+        report.heading(report.label("预约明细", "Appointments"));
+        report.table(APPOINTMENT_COLUMNS, report.label("时间", "Time"), report.label("医生", "Doctor"),
+                report.label("患者", "Patient"), report.label("账号", "Account"));
+        long start = report.rows();
+        Database.exportAppointments(spec.from, spec.to, dept, doctorId, a -> {
+            String time = a.get("appt_time");
+            // 2024-05-01 09:30:00.0 -> 2024-05-01 09:30
+            report.row(time.length() > 16 ? time.substring(0, 16) : time, a.get("doctor_name"), a.get("patient_name"), a.get("patient_username"));
+            long done = report.rows() - start;
+            if (done % 1000 == 0) progress.progress(done, total);
+        });
+        progress.progress(report.rows() - start, total);
+    }
+
+    private static void daily(PdfReport report, Spec spec) throws SQLException, IOException {
+        Map<LocalDateTime, Map<String, Integer>> days = new TreeMap<>();
+        Database.getAppointmentsByDeptPerHour(spec.from, spec.to).forEach((hour, depts) -> {
+            Map<String, Integer> day = days.computeIfAbsent(hour.truncatedTo(ChronoUnit.DAYS), k -> new TreeMap<>());
+            depts.forEach((dept, n) -> day.merge(dept, n, Integer::sum));
+        });
+        report.table(new float[]{2, 1, 6}, report.label("日期", "Date"), report.label("合计", "Total"), report.label("各科室", "Per department"));
+        for (Map.Entry<LocalDateTime, Map<String, Integer>> e : days.entrySet()) {
+            StringBuilder depts = new StringBuilder();
+            int total = 0;
+            for (Map.Entry<String, Integer> d : e.getValue().entrySet()) {
+                if (depts.length() > 0) depts.append(", ");
+                depts.append(d.getKey()).append(' ').append(d.getValue());
+                total += d.getValue();
+            }
+            report.row(e.getKey().toLocalDate().toString(), String.valueOf(total), depts.toString());
+        }
+    }
+}
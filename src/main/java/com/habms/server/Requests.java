@@ -0,0 +1,236 @@
+package com.habms.server;
+
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+/**
+ * Typed request bodies, one class per action. The "action" field selects the class (see
+ * {@link ActionRegistry}); the remaining fields bind to the public fields by name, and fields
+ * a request omits keep the defaults given here.
+ */
+public final class Requests {
+    private Requests() {}
+
+    @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.EXISTING_PROPERTY, property = "action")
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public abstract static class Request {
+    }
+
+    /**
+     * Paging parameters shared by the listing actions.
+     */
+    public abstract static class Paged extends Request {
+        public Integer limit;
+        public String after;
+        public String from;
+        public String to;
+    }
+
+    public static final class Login extends Request {
+        public String username;
+        public String password;
+    }
+
+    public static final class Logout extends Request {
+    }
+
+    public static final class Register extends Request {
+        public String username;
+        public String password;
+        public String fullname;
+        public String idcard;
+        public String phone = "";
+    }
+
+    public static final class DeleteAccount extends Request {
+    }
+
+    public static final class UpdateAccount extends Request {
+        public String password = "";
+        public String fullname = "";
+        public String phone = "";
+    }
+
+    public static final class SearchName extends Request {
+        public String q;
+    }
+
+    public static final class SearchDept extends Request {
+        public String q;
+    }
+
+    public static final class Search extends Request {
+        public String q;
+        public Integer limit;
+    }
+
+    public static final class ListDoctors extends Request {
+    }
+
+    public static final class ListAppts extends Paged {
+        public int doctorId;
+    }
+
+    public static final class Book extends Request {
+        public int doctorId;
+        public String patientName;
+        public String time;
+    }
+
+    public static final class Cancel extends Request {
+        public int apptId;
+    }
+
+    public static final class BookBatch extends Request {
+        public List<BookItem> items;
+    }
+
+    /**
+     * One booking of book_batch, for the given patient account.
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static final class BookItem {
+        public int doctorId;
+        public String patientUsername;
+        public String patientName;
+        public String time;
+    }
+
+    public static final class CancelBatch extends Request {
+        public List<Integer> apptIds;
+    }
+
+    public static final class AddDoctor extends Request {
+        public String name;
+        public String dept;
+        public String info = "";
+    }
+
+    public static final class UpdateDoctor extends Request {
+        public int id;
+        public String name;
+        public String dept;
+        public String info = "";
+    }
+
+    public static final class AddSchedule extends Request {
+        public int doctorId;
+        public String start;
+        public String end;
+        public String note = "";
+        public Integer capacity;
+    }
+
+    public static final class ListSchedules extends Paged {
+        public int doctorId;
+    }
+
+    public static final class AddScheduleTemplate extends Request {
+        public int doctorId;
+        // ISO day numbers, 1 (Monday) to 7 (Sunday)
+        public List<Integer> weekdays;
+        // working hours as HH:mm, cut into slots of slotMinutes
+        public String start;
+        public String end;
+        public int slotMinutes = 30;
+        public Integer capacity;
+        public String note = "";
+    }
+
+    public static final class ListScheduleTemplates extends Request {
+        // all doctors if absent
+        public Integer doctorId;
+    }
+
+    public static final class DeleteScheduleTemplate extends Request {
+        public int id;
+    }
+
+    public static final class GenerateSchedules extends Request {
+        // days in [from, to) as yyyy-MM-dd
+        public String from;
+        public String to;
+        // only this doctor's templates; all if absent
+        public Integer doctorId;
+    }
+
+    public static final class ListMyAppts extends Paged {
+    }
+
+    public static final class ListAllAppts extends Paged {
+    }
+
+    public static final class ImportDoctorsXls extends Request {
+        // legacy: the whole file Base64-encoded in the request line
+        public String content;
+        // chunked upload: size of the file that follows the request line
+        public Long attachment;
+    }
+
+    public static final class ExportAppointmentsXls extends Request {
+        // "chunked" to receive the file as frames after the response line instead of Base64
+        public String transfer;
+        // optional filters: appointment time in [from, to) and the doctor's department
+        public String from;
+        public String to;
+        public String dept;
+    }
+
+    public static final class GenerateReportPdf extends Request {
+        // summary (default), doctor, dept or daily
+        public String type;
+        // [from, to) as yyyy-MM-ddTHH:mm; required for daily
+        public String from;
+        public String to;
+        public Integer doctorId;
+        public String dept;
+        public String transfer;
+    }
+
+    public static final class ExportDump extends Request {
+        // "csv" (default) or "ndjson"
+        public String format;
+        // incremental dump: rows changed at or after this time (yyyy-MM-ddTHH:mm); all rows if absent
+        public String since;
+        // subset of doctors, schedules, appointments; all three if absent
+        public List<String> tables;
+        public String transfer;
+    }
+
+    public static final class SubmitJob extends Request {
+        // the request to run in the background, e.g. {"action":"export_appointments_xls","dept":"内科"}
+        public Map<String, Object> job;
+        // size of the file that follows for import_doctors_xls
+        public Long attachment;
+    }
+
+    public static final class JobStatus extends Request {
+        public String jobId;
+    }
+
+    public static final class JobResult extends Request {
+        public String jobId;
+        public String transfer;
+    }
+
+    public static final class ServerStats extends Request {
+    }
+
+    public static final class StatsTimeseries extends Request {
+        // [from, to) as yyyy-MM-ddTHH:mm, widened to whole buckets
+        public String from;
+        public String to;
+        // "hour" or "day" (default)
+        public String granularity;
+        // only this department
+        public String dept;
+    }
+
+    public static final class VerifyRollups extends Request {
+        // rewrite the rollups from the appointments when they disagree
+        public boolean repair;
+    }
+}
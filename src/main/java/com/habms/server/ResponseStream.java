@@ -0,0 +1,89 @@
+package com.habms.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Output stream for one response. Bytes are collected in a buffer and handed to the sink in
+ * chunks, so a large response leaves while it is still being produced and never exists in
+ * memory as a whole. Until the first chunk is sent the response can still be discarded and
+ * replaced by an error reply.
+ */
+class ResponseStream extends OutputStream {
+    interface ChunkSink {
+        void send(ByteBuffer chunk) throws IOException;
+    }
+
+    static final int CHUNK_BYTES = 32 * 1024;
+
+    private final ChunkSink sink;
+    private byte[] buf = new byte[1024];
+    private int len = 0;
+    private boolean committed = false;
+
+    ResponseStream(ChunkSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureRoom(1);
+        buf[len++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int n) throws IOException {
+        while (n > 0) {
+            ensureRoom(1);
+            int k = Math.min(n, buf.length - len);
+            System.arraycopy(b, off, buf, len, k);
+            len += k;
+            off += k;
+            n -= k;
+        }
+    }
+
+    private void ensureRoom(int n) throws IOException {
+        if (len + n <= buf.length) return;
+        if (buf.length < CHUNK_BYTES) {
+            // small responses stay in one small buffer
+            byte[] bigger = new byte[Math.min(CHUNK_BYTES, Math.max(buf.length * 2, len + n))];
+            System.arraycopy(buf, 0, bigger, 0, len);
+            buf = bigger;
+            if (len + n <= buf.length) return;
+        }
+        send();
+    }
+
+    /**
+     * Sends everything written so far.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (len > 0) send();
+    }
+
+    private void send() throws IOException {
+        ByteBuffer chunk = ByteBuffer.wrap(buf, 0, len);
+        committed = true;
+        buf = new byte[CHUNK_BYTES];
+        len = 0;
+        sink.send(chunk);
+    }
+
+    /**
+     * True once part of the response has been handed to the sink.
+     */
+    boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Discards the unsent response; only possible before it was committed.
+     */
+    void reset() {
+        if (committed) throw new IllegalStateException("response already committed");
+        len = 0;
+    }
+}
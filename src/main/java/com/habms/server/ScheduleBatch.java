@@ -0,0 +1,131 @@
+package com.habms.server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Schedule inserts sent as JDBC batches, in one transaction unless a commit interval is given.
+ * Each schedule is checked for overlaps against the schedule index and against the schedules
+ * queued before it; the generated ids are read back in {@link #finish}, and the caller publishes
+ * the slots after commit.
+ */
+final class ScheduleBatch implements AutoCloseable {
+    static final int BATCH_ROWS = 500;
+
+    /**
+     * Makes committed schedules visible to bookings and to later overlap checks.
+     */
+    interface Publisher {
+        void publish(List<ScheduleIndex.Slot> slots);
+    }
+
+    private final Connection conn;
+    private final ScheduleIndex schedules;
+    // schedules of this batch per doctor by start, for overlap checks among the queued rows
+    private final Map<Integer, TreeMap<LocalDateTime, ScheduleIndex.Slot>> queued = new HashMap<>();
+    private final PreparedStatement insert;
+    private final int commitRows;
+    private final Publisher publisher;
+    private int maxScheduleId;
+    private int pending = 0;
+    private int uncommitted = 0;
+    private int added = 0;
+
+    ScheduleBatch(Connection conn, ScheduleIndex schedules) throws SQLException {
+        this(conn, schedules, 0, null);
+    }
+
+    /**
+     * A batch that commits every {@code commitRows} schedules and hands each committed part to
+     * {@code publisher}, so a long insert never holds enough row locks for Derby to escalate them
+     * to a table lock on schedules. The caller still commits and publishes what {@link #finish}
+     * returns.
+     */
+    ScheduleBatch(Connection conn, ScheduleIndex schedules, int commitRows, Publisher publisher) throws SQLException {
+        this.conn = conn;
+        this.schedules = schedules;
+        this.commitRows = commitRows;
+        this.publisher = publisher;
+        this.insert = conn.prepareStatement("INSERT INTO schedules(doctor_id,start_time,end_time,note,capacity) VALUES(?,?,?,?,?)");
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(id), 0) FROM schedules")) {
+            rs.next();
+            this.maxScheduleId = rs.getInt(1);
+        }
+    }
+
+    /**
+     * Queues a schedule insert; returns false if the interval is empty or overlaps a schedule of
+     * the doctor, either an existing one or one queued earlier in this batch.
+     */
+    boolean add(int doctorId, LocalDateTime start, LocalDateTime end, String note, int capacity) throws SQLException {
+        if (!end.isAfter(start)) return false;
+        TreeMap<LocalDateTime, ScheduleIndex.Slot> mine = queued.computeIfAbsent(doctorId, k -> new TreeMap<>());
+        // queued intervals do not overlap each other, so only the last one starting before end can reach past start
+        Map.Entry<LocalDateTime, ScheduleIndex.Slot> before = mine.lowerEntry(end);
+        if ((before != null && before.getValue().end.isAfter(start)) || schedules.overlaps(doctorId, start, end)) {
+            schedules.rejectedOverlap();
+            return false;
+        }
+        mine.put(start, new ScheduleIndex.Slot(0, doctorId, start, end, capacity, note));
+        insert.setInt(1, doctorId); insert.setTimestamp(2, Timestamp.valueOf(start)); insert.setTimestamp(3, Timestamp.valueOf(end));
+        insert.setString(4, note); insert.setInt(5, capacity);
+        insert.addBatch();
+        added++;
+        if (++pending >= BATCH_ROWS) { insert.executeBatch(); pending = 0; }
+        if (++uncommitted >= commitRows && commitRows > 0) commitPart();
+        return true;
+    }
+
+    private void commitPart() throws SQLException {
+        List<ScheduleIndex.Slot> slots = finish();
+        conn.commit();
+        // from here on the schedule index holds these, so the overlap check no longer needs them queued
+        publisher.publish(slots);
+        queued.clear();
+        for (ScheduleIndex.Slot s : slots) maxScheduleId = Math.max(maxScheduleId, s.id);
+        uncommitted = 0;
+    }
+
+    int added() {
+        return added;
+    }
+
+    /**
+     * Runs the remaining batch and returns the schedules inserted since the last commit with their
+     * generated ids. The caller commits.
+     */
+    List<ScheduleIndex.Slot> finish() throws SQLException {
+        if (pending > 0) { insert.executeBatch(); pending = 0; }
+        List<ScheduleIndex.Slot> slots = new ArrayList<>(uncommitted);
+        if (uncommitted == 0) return slots;
+        // a literal bound lets Derby estimate the range from the primary key index; with a parameter
+        // it plans a full table scan, which every part of a long generation would repeat
+        try (Statement st = conn.createStatement()) {
+            try (ResultSet rs = st.executeQuery("SELECT id,doctor_id,start_time FROM schedules WHERE id>" + maxScheduleId)) {
+                while (rs.next()) {
+                    // ids above the old maximum may also come from a concurrent insert; keep only ours
+                    TreeMap<LocalDateTime, ScheduleIndex.Slot> mine = queued.get(rs.getInt(2));
+                    ScheduleIndex.Slot s = mine == null ? null : mine.get(rs.getTimestamp(3).toLocalDateTime());
+                    if (s != null) slots.add(new ScheduleIndex.Slot(rs.getInt(1), s.doctorId, s.start, s.end, s.capacity, s.note));
+                }
+            }
+        }
+        return slots;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        insert.close();
+    }
+}
@@ -0,0 +1,183 @@
+package com.habms.server;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory interval index of schedules, one ordered set per doctor sorted by start time.
+ * Schedules of a doctor do not overlap (enforced on insert), so the slot containing a time is
+ * the one with the greatest start not after it, and an O(log n) floor lookup replaces the
+ * range query on {@code schedules}.
+ */
+class ScheduleIndex {
+    static final class Slot {
+        final int id;
+        final int doctorId;
+        final LocalDateTime start;
+        final LocalDateTime end;
+        final int capacity;
+        final String note;
+
+        Slot(int id, int doctorId, LocalDateTime start, LocalDateTime end, int capacity, String note) {
+            this.id = id;
+            this.doctorId = doctorId;
+            this.start = start;
+            this.end = end;
+            this.capacity = capacity;
+            this.note = note;
+        }
+
+        boolean contains(LocalDateTime t) {
+            return !start.isAfter(t) && end.isAfter(t);
+        }
+    }
+
+    private static final Comparator<Slot> BY_START = Comparator.<Slot, LocalDateTime>comparing(s -> s.start).thenComparingInt(s -> s.id);
+
+    private final ConcurrentHashMap<Integer, ConcurrentSkipListSet<Slot>> byDoctor = new ConcurrentHashMap<>();
+    // doctors whose stored schedules overlap (only possible for data from before overlap checking)
+    private final Set<Integer> overlapping = ConcurrentHashMap.newKeySet();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong overlapsRejected = new AtomicLong();
+    // single inserts share it (and serialize per doctor on lockFor); batches of many doctors take it exclusively
+    private final ReadWriteLock inserts = new ReentrantReadWriteLock();
+
+    void load(Connection conn) throws SQLException {
+        byDoctor.clear();
+        overlapping.clear();
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT id, doctor_id, start_time, end_time, capacity, note FROM schedules WHERE start_time IS NOT NULL AND end_time IS NOT NULL")) {
+            while (rs.next()) {
+                add(new Slot(rs.getInt(1), rs.getInt(2), rs.getTimestamp(3).toLocalDateTime(), rs.getTimestamp(4).toLocalDateTime(), rs.getInt(5), rs.getString(6)));
+            }
+        }
+    }
+
+    /**
+     * Returns the schedule of the doctor whose [start, end) contains {@code time}, or null.
+     */
+    Slot find(int doctorId, LocalDateTime time) {
+        lookups.incrementAndGet();
+        ConcurrentSkipListSet<Slot> slots = byDoctor.get(doctorId);
+        Slot found = null;
+        if (slots != null) {
+            Slot floor = slots.floor(probe(time, Integer.MAX_VALUE));
+            if (floor != null && floor.contains(time)) {
+                found = floor;
+            } else if (floor != null && overlapping.contains(doctorId)) {
+                // schedules added before overlap checking: an earlier, longer slot may still cover the time
+                for (Slot s : slots.headSet(floor, true).descendingSet()) {
+                    if (s.contains(time)) { found = s; break; }
+                }
+            }
+        }
+        if (found == null) misses.incrementAndGet();
+        return found;
+    }
+
+    /**
+     * True if [start, end) intersects an existing schedule of the doctor.
+     */
+    boolean overlaps(int doctorId, LocalDateTime start, LocalDateTime end) {
+        ConcurrentSkipListSet<Slot> slots = byDoctor.get(doctorId);
+        if (slots == null) return false;
+        // the last slot starting before `end` is the only candidate when slots do not overlap each other
+        Slot candidate = slots.lower(probe(end, Integer.MIN_VALUE));
+        if (candidate == null) return false;
+        if (candidate.end.isAfter(start)) return true;
+        if (!overlapping.contains(doctorId)) return false;
+        for (Slot s : slots.headSet(candidate, false)) {
+            if (s.end.isAfter(start)) return true;
+        }
+        return false;
+    }
+
+    void add(Slot slot) {
+        if (overlaps(slot.doctorId, slot.start, slot.end)) overlapping.add(slot.doctorId);
+        byDoctor.computeIfAbsent(slot.doctorId, k -> new ConcurrentSkipListSet<>(BY_START)).add(slot);
+    }
+
+    /**
+     * Lock object for check-then-insert of one doctor's schedules.
+     */
+    Object lockFor(int doctorId) {
+        return byDoctor.computeIfAbsent(doctorId, k -> new ConcurrentSkipListSet<>(BY_START));
+    }
+
+    /**
+     * Held while checking and inserting the schedules of one doctor, together with {@link #lockFor}.
+     */
+    Lock singleInsert() {
+        return inserts.readLock();
+    }
+
+    /**
+     * Held while checking and inserting schedules of any number of doctors, until they are added
+     * to the index.
+     */
+    Lock batchInsert() {
+        return inserts.writeLock();
+    }
+
+    void rejectedOverlap() {
+        overlapsRejected.incrementAndGet();
+    }
+
+    /**
+     * All schedules of a doctor in start time order.
+     */
+    List<Slot> forDoctor(int doctorId) {
+        ConcurrentSkipListSet<Slot> slots = byDoctor.get(doctorId);
+        return slots == null ? new ArrayList<>() : new ArrayList<>(slots);
+    }
+
+    /**
+     * Up to {@code max} schedules of a doctor in (start, id) order that start in [from, to)
+     * and come after the key (afterStart, afterId); null bounds are open.
+     */
+    List<Slot> range(int doctorId, LocalDateTime from, LocalDateTime to, LocalDateTime afterStart, int afterId, int max) {
+        List<Slot> result = new ArrayList<>();
+        ConcurrentSkipListSet<Slot> slots = byDoctor.get(doctorId);
+        if (slots == null) return result;
+        NavigableSet<Slot> tail = slots;
+        if (afterStart != null && (from == null || !afterStart.isBefore(from))) tail = slots.tailSet(probe(afterStart, afterId), false);
+        else if (from != null) tail = slots.tailSet(probe(from, Integer.MIN_VALUE), true);
+        for (Slot s : tail) {
+            if (result.size() >= max || (to != null && !s.start.isBefore(to))) break;
+            result.add(s);
+        }
+        return result;
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("doctors", byDoctor.size());
+        m.put("schedules", byDoctor.values().stream().mapToInt(ConcurrentSkipListSet::size).sum());
+        m.put("doctorsWithOverlaps", overlapping.size());
+        m.put("lookups", lookups.get());
+        m.put("misses", misses.get());
+        m.put("overlapsRejected", overlapsRejected.get());
+        return m;
+    }
+
+    private static Slot probe(LocalDateTime start, int id) {
+        return new Slot(id, 0, start, start, 0, null);
+    }
+}
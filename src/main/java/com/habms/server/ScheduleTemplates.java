@@ -0,0 +1,142 @@
+package com.habms.server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * Weekly schedule templates: on the given weekdays a doctor's working hours [start, end) are cut
+ * into slots of {@code slotMinutes}, each with the template's capacity. Generation expands the
+ * templates over a date range into a {@link ScheduleBatch}; slots that overlap an existing
+ * schedule are skipped, which also makes running it again over the same range add nothing.
+ */
+final class ScheduleTemplates {
+    static final class Template {
+        final int id;
+        final int doctorId;
+        final Set<DayOfWeek> weekdays;
+        final LocalTime start;
+        final LocalTime end;
+        final int slotMinutes;
+        final int capacity;
+        final String note;
+
+        Template(int id, int doctorId, Set<DayOfWeek> weekdays, LocalTime start, LocalTime end, int slotMinutes, int capacity, String note) {
+            this.id = id;
+            this.doctorId = doctorId;
+            this.weekdays = weekdays;
+            this.start = start;
+            this.end = end;
+            this.slotMinutes = slotMinutes;
+            this.capacity = capacity;
+            this.note = note;
+        }
+
+        /**
+         * Whether start, end and slot length describe at least one slot.
+         */
+        boolean valid() {
+            return !weekdays.isEmpty() && capacity > 0 && slotMinutes > 0 && slotMinutes <= Duration.between(start, end).toMinutes();
+        }
+    }
+
+    static final class Result {
+        int templates;
+        int addedSchedules;
+        int skippedSlots;
+    }
+
+    private ScheduleTemplates() {}
+
+    static int add(Connection conn, Template t) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO schedule_templates(doctor_id,weekdays,day_start,day_end,slot_minutes,capacity,note) VALUES(?,?,?,?,?,?,?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            ps.setInt(1, t.doctorId);
+            ps.setString(2, weekdays(t.weekdays));
+            ps.setTime(3, Time.valueOf(t.start));
+            ps.setTime(4, Time.valueOf(t.end));
+            ps.setInt(5, t.slotMinutes);
+            ps.setInt(6, t.capacity);
+            ps.setString(7, t.note);
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                return keys.next() ? keys.getInt(1) : -1;
+            }
+        }
+    }
+
+    static boolean delete(Connection conn, int id) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM schedule_templates WHERE id=?")) {
+            ps.setInt(1, id);
+            return ps.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * The templates of one doctor, or of all doctors when {@code doctorId} is null.
+     */
+    static List<Template> list(Connection conn, Integer doctorId) throws SQLException {
+        String sql = "SELECT id,doctor_id,weekdays,day_start,day_end,slot_minutes,capacity,note FROM schedule_templates"
+                + (doctorId == null ? "" : " WHERE doctor_id=?") + " ORDER BY doctor_id, id";
+        List<Template> list = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            if (doctorId != null) ps.setInt(1, doctorId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    list.add(new Template(rs.getInt(1), rs.getInt(2), weekdays(rs.getString(3)), rs.getTime(4).toLocalTime(),
+                            rs.getTime(5).toLocalTime(), rs.getInt(6), rs.getInt(7), rs.getString(8)));
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Queues the slots of the templates (of one doctor, or all) on the days in [from, to) into
+     * {@code batch}. The caller finishes the batch and commits the rest.
+     */
+    static Result generate(Connection conn, ScheduleBatch batch, LocalDate from, LocalDate to, Integer doctorId) throws SQLException {
+        Result result = new Result();
+        for (Template t : list(conn, doctorId)) {
+            result.templates++;
+            for (LocalDate day = from; day.isBefore(to); day = day.plusDays(1)) {
+                if (!t.weekdays.contains(day.getDayOfWeek())) continue;
+                LocalDateTime end = day.atTime(t.end);
+                for (LocalDateTime start = day.atTime(t.start); !start.plusMinutes(t.slotMinutes).isAfter(end); start = start.plusMinutes(t.slotMinutes)) {
+                    if (!batch.add(t.doctorId, start, start.plusMinutes(t.slotMinutes), t.note, t.capacity)) result.skippedSlots++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Weekdays as stored, ISO numbers 1 (Monday) to 7 (Sunday) separated by commas.
+     */
+    static String weekdays(Set<DayOfWeek> days) {
+        StringJoiner sj = new StringJoiner(",");
+        for (DayOfWeek d : days) sj.add(String.valueOf(d.getValue()));
+        return sj.toString();
+    }
+
+    static Set<DayOfWeek> weekdays(String stored) {
+        Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+        for (String s : stored.split(",")) {
+            if (!s.trim().isEmpty()) days.add(DayOfWeek.of(Integer.parseInt(s.trim())));
+        }
+        return days;
+    }
+}
@@ -0,0 +1,212 @@
+package com.habms.server;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Versioned schema migrations. Migrations run once, in version order, each in its own
+ * transaction together with its row in {@code schema_version}; a database that is already
+ * up to date costs a single query at startup. Every step also tolerates objects that exist
+ * already, because databases created before versioning have the base tables but no history.
+ */
+class SchemaMigrator {
+    interface Step {
+        void apply(Connection conn, Statement st) throws SQLException;
+    }
+
+    private static final class Migration {
+        final int version;
+        final String description;
+        final Step step;
+
+        Migration(int version, String description, Step step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+
+    private static final List<Migration> MIGRATIONS = new ArrayList<>();
+
+    static {
+        add(1, "base tables", (conn, st) -> {
+            // users: role (ADMIN/PATIENT), fullname, idcard, phone
+            createTable(st, "CREATE TABLE users (id INT PRIMARY KEY GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1), username VARCHAR(50) UNIQUE, password VARCHAR(100), role VARCHAR(20), fullname VARCHAR(100), idcard VARCHAR(50), phone VARCHAR(50))");
+            createTable(st, "CREATE TABLE doctors (id INT PRIMARY KEY GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1), name VARCHAR(100), dept VARCHAR(100), info VARCHAR(255))");
+            createTable(st, "CREATE TABLE appointments (id INT PRIMARY KEY GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1), doctor_id INT, patient_username VARCHAR(50), patient_name VARCHAR(100), appt_time TIMESTAMP)");
+            // schedules: doctor_id + start_time + end_time + note + capacity
+            createTable(st, "CREATE TABLE schedules (id INT PRIMARY KEY GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1), doctor_id INT, start_time TIMESTAMP, end_time TIMESTAMP, note VARCHAR(255), capacity INT)");
+        });
+        add(2, "widen users.password for sha256 hashes", (conn, st) -> {
+            if (columnSize(conn, "USERS", "PASSWORD") < 100) {
+                st.executeUpdate("ALTER TABLE users ALTER COLUMN password SET DATA TYPE VARCHAR(100)");
+            }
+        });
+        add(3, "schedules: slot_time -> start_time/end_time/capacity", (conn, st) -> {
+            if (!columnExists(conn, "SCHEDULES", "START_TIME")) st.executeUpdate("ALTER TABLE schedules ADD COLUMN start_time TIMESTAMP");
+            if (!columnExists(conn, "SCHEDULES", "END_TIME")) st.executeUpdate("ALTER TABLE schedules ADD COLUMN end_time TIMESTAMP");
+            if (!columnExists(conn, "SCHEDULES", "CAPACITY")) st.executeUpdate("ALTER TABLE schedules ADD COLUMN capacity INT");
+            if (!columnExists(conn, "SCHEDULES", "SLOT_TIME")) return;
+            // old one-hour slots: end_time = slot_time + 1 hour, capacity 1
+            List<Integer> ids = new ArrayList<>();
+            List<Timestamp> slots = new ArrayList<>();
+            try (ResultSet rs = st.executeQuery("SELECT id, slot_time FROM schedules WHERE start_time IS NULL AND slot_time IS NOT NULL")) {
+                while (rs.next()) { ids.add(rs.getInt(1)); slots.add(rs.getTimestamp(2)); }
+            }
+            try (PreparedStatement upd = conn.prepareStatement("UPDATE schedules SET start_time=?, end_time=?, capacity=? WHERE id=?")) {
+                for (int i = 0; i < ids.size(); i++) {
+                    Timestamp s = slots.get(i);
+                    upd.setTimestamp(1, s);
+                    upd.setTimestamp(2, new Timestamp(s.getTime() + 3600L * 1000L));
+                    upd.setInt(3, 1);
+                    upd.setInt(4, ids.get(i));
+                    upd.addBatch();
+                }
+                upd.executeBatch();
+            }
+        });
+        add(4, "indexes for booking, listing and search predicates", (conn, st) -> {
+            createIndex(st, "CREATE INDEX idx_appt_doctor_time ON appointments(doctor_id, appt_time)");
+            createIndex(st, "CREATE INDEX idx_appt_patient_time ON appointments(patient_username, appt_time)");
+            createIndex(st, "CREATE INDEX idx_sched_doctor_start ON schedules(doctor_id, start_time)");
+            createIndex(st, "CREATE INDEX idx_doctors_name ON doctors(name)");
+            createIndex(st, "CREATE INDEX idx_doctors_dept ON doctors(dept)");
+        });
+        add(5, "appointments.schedule_id and schedules.booked counter", (conn, st) -> {
+            if (!columnExists(conn, "APPOINTMENTS", "SCHEDULE_ID")) st.executeUpdate("ALTER TABLE appointments ADD COLUMN schedule_id INT");
+            if (!columnExists(conn, "SCHEDULES", "BOOKED")) st.executeUpdate("ALTER TABLE schedules ADD COLUMN booked INT DEFAULT 0 NOT NULL");
+            // attach existing appointments to the schedule whose interval contains them
+            st.executeUpdate("UPDATE appointments SET schedule_id = (SELECT MIN(s.id) FROM schedules s WHERE s.doctor_id=appointments.doctor_id"
+                    + " AND s.start_time<=appointments.appt_time AND s.end_time>appointments.appt_time) WHERE schedule_id IS NULL");
+            createIndex(st, "CREATE INDEX idx_appt_schedule ON appointments(schedule_id)");
+            st.executeUpdate("UPDATE schedules SET booked = (SELECT COUNT(*) FROM appointments a WHERE a.schedule_id=schedules.id)");
+        });
+        add(6, "appointment indexes ending in id for keyset pagination", (conn, st) -> {
+            // (..., appt_time, id) serves ORDER BY appt_time, id without a sort; the old indexes are prefixes of the new ones
+            createIndex(st, "CREATE INDEX idx_appt_doctor_time_id ON appointments(doctor_id, appt_time, id)");
+            createIndex(st, "CREATE INDEX idx_appt_patient_time_id ON appointments(patient_username, appt_time, id)");
+            createIndex(st, "CREATE INDEX idx_appt_time_id ON appointments(appt_time, id)");
+            dropIndex(st, "idx_appt_doctor_time");
+            dropIndex(st, "idx_appt_patient_time");
+        });
+        add(7, "updated_at columns and deleted_rows for incremental dumps", (conn, st) -> {
+            for (String table : new String[]{"doctors", "schedules", "appointments"}) {
+                if (!columnExists(conn, table.toUpperCase(), "UPDATED_AT")) {
+                    st.executeUpdate("ALTER TABLE " + table + " ADD COLUMN updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP");
+                }
+                st.executeUpdate("UPDATE " + table + " SET updated_at=CURRENT_TIMESTAMP WHERE updated_at IS NULL");
+                createIndex(st, "CREATE INDEX idx_" + table + "_updated ON " + table + "(updated_at)");
+            }
+            // appointments are deleted on cancel; an incremental dump reports them from here
+            createTable(st, "CREATE TABLE deleted_rows (table_name VARCHAR(30), row_id INT, deleted_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+            createIndex(st, "CREATE INDEX idx_deleted_rows_at ON deleted_rows(deleted_at)");
+        });
+        add(8, "appt_rollup: appointment counts per doctor and hour", (conn, st) -> {
+            createTable(st, "CREATE TABLE appt_rollup (doctor_id INT NOT NULL, bucket TIMESTAMP NOT NULL, appointments INT NOT NULL, PRIMARY KEY (doctor_id, bucket))");
+            createIndex(st, "CREATE INDEX idx_appt_rollup_bucket ON appt_rollup(bucket)");
+            st.executeUpdate("DELETE FROM appt_rollup");
+            ApptRollup.fill(conn);
+        });
+        add(9, "schedule_templates: weekly schedule patterns per doctor", (conn, st) -> {
+            // weekdays: ISO day numbers separated by commas, e.g. "1,2,3,4,5"
+            createTable(st, "CREATE TABLE schedule_templates (id INT PRIMARY KEY GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1), doctor_id INT NOT NULL,"
+                    + " weekdays VARCHAR(20) NOT NULL, day_start TIME NOT NULL, day_end TIME NOT NULL, slot_minutes INT NOT NULL, capacity INT NOT NULL, note VARCHAR(255))");
+            createIndex(st, "CREATE INDEX idx_sched_tpl_doctor ON schedule_templates(doctor_id)");
+        });
+    }
+
+    private SchemaMigrator() {}
+
+    private static void add(int version, String description, Step step) {
+        MIGRATIONS.add(new Migration(version, description, step));
+    }
+
+    static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    /**
+     * Applies all migrations newer than the recorded schema version.
+     */
+    static void migrate(Connection conn) throws SQLException {
+        int current;
+        try (Statement st = conn.createStatement()) {
+            createTable(st, "CREATE TABLE schema_version (version INT PRIMARY KEY, description VARCHAR(200), applied_at TIMESTAMP)");
+            try (ResultSet rs = st.executeQuery("SELECT MAX(version) FROM schema_version")) {
+                rs.next();
+                current = rs.getInt(1);
+            }
+        }
+        if (current >= latestVersion()) {
+            System.out.println("数据库结构已是最新版本 " + current);
+            return;
+        }
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            for (Migration m : MIGRATIONS) {
+                if (m.version <= current) continue;
+                long t0 = System.currentTimeMillis();
+                try (Statement st = conn.createStatement()) {
+                    m.step.apply(conn, st);
+                }
+                try (PreparedStatement ps = conn.prepareStatement("INSERT INTO schema_version(version, description, applied_at) VALUES(?,?,CURRENT_TIMESTAMP)")) {
+                    ps.setInt(1, m.version);
+                    ps.setString(2, m.description);
+                    ps.executeUpdate();
+                }
+                conn.commit();
+                System.out.println("已应用数据库迁移 " + m.version + ": " + m.description + " (" + (System.currentTimeMillis() - t0) + "ms)");
+            }
+        } catch (SQLException ex) {
+            conn.rollback();
+            throw ex;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void createTable(Statement st, String ddl) throws SQLException {
+        try {
+            st.executeUpdate(ddl);
+        } catch (SQLException e) {
+            if (!alreadyExists(e)) throw e;
+        }
+    }
+
+    private static void createIndex(Statement st, String ddl) throws SQLException {
+        createTable(st, ddl);
+    }
+
+    private static void dropIndex(Statement st, String name) throws SQLException {
+        try {
+            st.executeUpdate("DROP INDEX " + name);
+        } catch (SQLException e) {
+            // Derby throws 42X65: Index does not exist
+            if (!"42X65".equals(e.getSQLState())) throw e;
+        }
+    }
+
+    private static boolean alreadyExists(SQLException e) {
+        // Derby throws X0Y32: Table/View/Index already exists in schema
+        return e.getSQLState() != null && e.getSQLState().startsWith("X0Y");
+    }
+
+    private static boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        return columnSize(conn, table, column) >= 0;
+    }
+
+    private static int columnSize(Connection conn, String table, String column) throws SQLException {
+        DatabaseMetaData md = conn.getMetaData();
+        try (ResultSet rs = md.getColumns(null, null, table, column)) {
+            return rs.next() ? rs.getInt("COLUMN_SIZE") : -1;
+        }
+    }
+}
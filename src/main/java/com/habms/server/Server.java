@@ -1,13 +1,9 @@
 package com.habms.server;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.sql.SQLException;
 
 public class Server {
-    private static final int PORT = 9090;
-
     public static void main(String[] args) {
         System.out.println("启动 HABMS 服务器...");
         try {
@@ -16,34 +12,16 @@ public class Server {
             e.printStackTrace();
             return;
         }
-        ServerSocket ss = null;
+        // parse the report font now rather than on the first report
+        ReportFont.get();
+        NioServer server = new NioServer(ServerConfig.PORT, ServerConfig.WORKERS, ServerConfig.QUEUE_CAPACITY, ServerConfig.MAX_CONNECTIONS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("服务器正在关闭...");
+            server.stop();
+            Database.shutdown();
+        }));
         try {
-            ss = new ServerSocket(PORT);
-            ServerSocket finalSs = ss;
-            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                System.out.println("服务器正在关闭...");
-                try {
-                    if (finalSs != null && !finalSs.isClosed()) finalSs.close();
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
-                Database.shutdown();
-            }));
-            System.out.println("服务器监听端口 " + PORT);
-            while (true) {
-                try {
-                    Socket s = ss.accept();
-                    System.out.println("接入客户端: " + s.getRemoteSocketAddress());
-                    new Thread(new ServerHandler(s)).start();
-                } catch (IOException ex) {
-                    if (ss.isClosed()) {
-                        System.out.println("Server socket closed, 退出监听循环。");
-                        break;
-                    } else {
-                        ex.printStackTrace();
-                    }
-                }
-            }
+            server.serve();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,98 @@
+package com.habms.server;
+
+/**
+ * Server tuning knobs, read from system properties (e.g. {@code -Dhabms.workers=32}).
+ */
+public final class ServerConfig {
+    public static final int PORT = Integer.getInteger("habms.port", 9090);
+    // request workers; each one may hold a database connection while it runs
+    public static final int WORKERS = Integer.getInteger("habms.workers", Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    // requests waiting for a worker; beyond this the server answers "busy"
+    public static final int QUEUE_CAPACITY = Integer.getInteger("habms.queue", 256);
+    // booking (book/cancel) and bulk (imports, exports, reports, dumps) lanes get their own workers and queues
+    public static final int BOOKING_WORKERS = Integer.getInteger("habms.lane.booking.workers", Math.max(2, WORKERS / 2));
+    public static final int BOOKING_QUEUE = Integer.getInteger("habms.lane.booking.queue", QUEUE_CAPACITY);
+    public static final int BULK_WORKERS = Integer.getInteger("habms.lane.bulk.workers", 2);
+    public static final int BULK_QUEUE = Integer.getInteger("habms.lane.bulk.queue", 16);
+    public static final int MAX_CONNECTIONS = Integer.getInteger("habms.maxConnections", 2000);
+    // requests one connection may have queued (pipelined) behind the one in progress; beyond this the
+    // server stops reading from it until its queue drains
+    public static final int PIPELINE_MAX_REQUESTS = Math.max(1, Integer.getInteger("habms.pipeline.maxRequests", 32));
+
+    // JDBC connection pool
+    public static final String DB_URL = System.getProperty("habms.db.url", "jdbc:derby:habmsdb;create=true");
+    public static final int DB_POOL_MIN = Integer.getInteger("habms.db.poolMin", 2);
+    public static final int DB_POOL_MAX = Integer.getInteger("habms.db.poolMax", Math.max(10, WORKERS));
+    public static final long DB_BORROW_TIMEOUT_MS = Long.getLong("habms.db.borrowTimeoutMs", 5_000L);
+    public static final long DB_LEAK_THRESHOLD_MS = Long.getLong("habms.db.leakThresholdMs", 60_000L);
+    // pooled connections each lane may hold at once; interactive reads leave room for bookings, bulk
+    // work gets a share only and waits longer for it, since a slower export is better than a failed one
+    public static final int DB_QUOTA_INTERACTIVE = Integer.getInteger("habms.db.quota.interactive", Math.max(1, DB_POOL_MAX - 2));
+    public static final int DB_QUOTA_BOOKING = Integer.getInteger("habms.db.quota.booking", DB_POOL_MAX);
+    public static final int DB_QUOTA_BULK = Integer.getInteger("habms.db.quota.bulk", Math.max(1, DB_POOL_MAX / 4));
+    public static final long DB_QUOTA_BULK_WAIT_MS = Long.getLong("habms.db.quota.bulkWaitMs", 10 * 60_000L);
+    // identity values Derby reserves at a time (derby.language.sequence.preallocator), set JVM-wide at
+    // startup; each reservation is a synchronous log flush, one per hundred inserted rows with Derby's
+    // default. Values still reserved when the process dies are skipped, so ids may jump by this much
+    public static final int DB_IDENTITY_PREALLOCATE = Integer.getInteger("habms.db.identityPreallocate", 5000);
+    // prepared statements cached per pooled connection; 0 disables the cache
+    public static final int DB_STATEMENT_CACHE = Integer.getInteger("habms.db.statementCache", 64);
+
+    // ranked doctor search: default and maximum number of results
+    public static final int SEARCH_LIMIT = Integer.getInteger("habms.search.limit", 20);
+    public static final int SEARCH_MAX_LIMIT = Integer.getInteger("habms.search.maxLimit", 200);
+
+    // paginated listings: page size when the request gives no limit, and the largest allowed
+    public static final int PAGE_SIZE = Integer.getInteger("habms.page.size", 100);
+    public static final int PAGE_MAX = Integer.getInteger("habms.page.maxSize", 1000);
+
+    // streamed responses: a worker pauses once this many bytes wait for a slow client, resumes below the low mark
+    public static final long STREAM_HIGH_WATER = Long.getLong("habms.stream.highWater", 1024 * 1024L);
+    public static final long STREAM_LOW_WATER = Long.getLong("habms.stream.lowWater", 256 * 1024L);
+    public static final long STREAM_WRITE_TIMEOUT_MS = Long.getLong("habms.stream.writeTimeoutMs", 30_000L);
+
+    // chunked uploads are spooled to temporary files; larger uploads are discarded and refused
+    public static final long UPLOAD_MAX_BYTES = Long.getLong("habms.upload.maxBytes", 256L * 1024 * 1024);
+
+    // appointment export: rows fetched per cursor round trip, and rows SXSSF keeps in memory before flushing to disk
+    public static final int EXPORT_FETCH_SIZE = Integer.getInteger("habms.export.fetchSize", 500);
+    public static final int EXPORT_ROW_WINDOW = Integer.getInteger("habms.export.rowWindow", 100);
+
+    // warehouse dumps: tables dumped at the same time, and how far the returned nextSince lies before
+    // the start of a dump, so that rows committed by transactions still running then are not missed
+    public static final int DUMP_THREADS = Integer.getInteger("habms.dump.threads", 3);
+    public static final long DUMP_OVERLAP_MS = Long.getLong("habms.dump.overlapMs", 5 * 60_000L);
+
+    // background jobs (submit_job): worker threads, jobs waiting beyond those, where results are kept and for how long
+    public static final int JOB_THREADS = Integer.getInteger("habms.jobs.threads", 2);
+    public static final int JOB_QUEUE = Integer.getInteger("habms.jobs.queue", 16);
+    public static final String JOB_DIR = System.getProperty("habms.jobs.dir", java.nio.file.Paths.get(System.getProperty("java.io.tmpdir"), "habms-jobs").toString());
+    public static final long JOB_TTL_MS = Long.getLong("habms.jobs.ttlMs", 60 * 60_000L);
+
+    // stats_timeseries: the longest range served, and how many ended hours stay cached (one entry per hour)
+    public static final int STATS_MAX_HOURS = Integer.getInteger("habms.stats.maxHours", 366 * 24);
+    public static final int STATS_CACHE_HOURS = Integer.getInteger("habms.stats.cacheHours", 2 * 366 * 24);
+
+    // PDF reports: candidate fonts, first usable wins (a .ttc may name its font after '#'), and the heap a
+    // report document may use before its content moves to a scratch file
+    public static final String REPORT_FONTS = System.getProperty("habms.report.fonts", String.join(",",
+            "C:\\Windows\\Fonts\\msyh.ttf", "C:\\Windows\\Fonts\\simhei.ttf", "C:\\Windows\\Fonts\\simsun.ttf",
+            "C:\\Windows\\Fonts\\msyh.ttc", "C:\\Windows\\Fonts\\simsun.ttc",
+            "/usr/share/fonts/truetype/wqy/wqy-microhei.ttc", "/usr/share/fonts/truetype/wqy/wqy-zenhei.ttc",
+            "/usr/share/fonts/wqy-microhei/wqy-microhei.ttc", "/usr/share/fonts/wqy-zenhei/wqy-zenhei.ttc",
+            "/usr/share/fonts/truetype/droid/DroidSansFallbackFull.ttf", "/usr/share/fonts/google-droid/DroidSansFallback.ttf",
+            "/usr/share/fonts/truetype/arphic/uming.ttc", "/usr/share/fonts/cjkuni-uming/uming.ttc",
+            "/System/Library/Fonts/Supplemental/Arial Unicode.ttf", "/Library/Fonts/Arial Unicode.ttf"));
+    public static final long REPORT_MEMORY_BYTES = Long.getLong("habms.report.memoryBytes", 4 * 1024 * 1024L);
+
+    // generate_schedules: the longest range of days expanded in one request
+    public static final int SCHEDULE_GENERATE_MAX_DAYS = Integer.getInteger("habms.schedules.generateMaxDays", 366);
+    // schedule generation commits after this many rows, below the 5000 row locks per table at which
+    // Derby escalates a transaction to a table lock (derby.locks.escalationThreshold)
+    public static final int SCHEDULE_COMMIT_ROWS = Math.max(ScheduleBatch.BATCH_ROWS, Integer.getInteger("habms.schedules.commitRows", 4000));
+
+    // book_batch / cancel_batch: the most items in one request, and so in one transaction
+    public static final int BATCH_MAX_ITEMS = Integer.getInteger("habms.batch.maxItems", 1000);
+
+    private ServerConfig() {}
+}
@@ -0,0 +1,26 @@
+package com.habms.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Registry of runtime statistics. Components register a named section once and the
+ * admin-only {@code server_stats} action returns a snapshot of all sections.
+ */
+public final class ServerMetrics {
+    private static final Map<String, Supplier<Map<String, Object>>> sections = new ConcurrentHashMap<>();
+
+    private ServerMetrics() {}
+
+    public static void register(String name, Supplier<Map<String, Object>> section) {
+        sections.put(name, section);
+    }
+
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> all = new LinkedHashMap<>();
+        sections.keySet().stream().sorted().forEach(name -> all.put(name, sections.get(name).get()));
+        return all;
+    }
+}
@@ -0,0 +1,24 @@
+package com.habms.server;
+
+/**
+ * Login state bound to a single client connection.
+ * Requests of one connection are handled one at a time, but possibly on different worker threads.
+ */
+public class Session {
+    private volatile String user;
+    private volatile String role;
+
+    public String getUser() { return user; }
+
+    public String getRole() { return role; }
+
+    public void login(String user, String role) {
+        this.user = user;
+        this.role = role;
+    }
+
+    public void clear() {
+        this.user = null;
+        this.role = null;
+    }
+}
@@ -0,0 +1,108 @@
+package com.habms.server;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory remaining capacity per schedule, so that bookings for full slots are turned away
+ * without a database transaction. Seats are reserved with a CAS on the schedule's counter before
+ * the booking transaction and released again if the transaction does not insert an appointment.
+ *
+ * Derby stays the source of truth: the conditional update of {@code schedules.booked} still
+ * guards capacity, the counters are rebuilt from {@code schedules} at startup (so nothing
+ * survives a crash that Derby does not know about), and whenever the database rejects a booking
+ * the counter is set to the seats Derby reports as free. A counter may briefly run ahead of the
+ * database, which only costs a rejected transaction, but it does not stay behind it.
+ */
+class SlotInventory {
+    enum Reservation { RESERVED, FULL, UNKNOWN }
+
+    private final ConcurrentHashMap<Integer, AtomicInteger> remaining = new ConcurrentHashMap<>();
+    private final AtomicLong reservations = new AtomicLong();
+    private final AtomicLong rejectedFull = new AtomicLong();
+    private final AtomicLong releases = new AtomicLong();
+    private final AtomicLong corrections = new AtomicLong();
+
+    /**
+     * Replaces all counters with capacity - booked from the schedules table.
+     */
+    void load(Connection conn) throws SQLException {
+        Map<Integer, AtomicInteger> fresh = new ConcurrentHashMap<>();
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT id, capacity, booked FROM schedules")) {
+            while (rs.next()) fresh.put(rs.getInt(1), new AtomicInteger(Math.max(0, rs.getInt(2) - rs.getInt(3))));
+        }
+        remaining.clear();
+        remaining.putAll(fresh);
+    }
+
+    Reservation tryReserve(int scheduleId) {
+        AtomicInteger left = remaining.get(scheduleId);
+        if (left == null) return Reservation.UNKNOWN;
+        while (true) {
+            int n = left.get();
+            if (n <= 0) {
+                rejectedFull.incrementAndGet();
+                return Reservation.FULL;
+            }
+            if (left.compareAndSet(n, n - 1)) {
+                reservations.incrementAndGet();
+                return Reservation.RESERVED;
+            }
+        }
+    }
+
+    /**
+     * Gives back a seat: the reservation was not used, or an appointment was cancelled.
+     */
+    void release(int scheduleId) {
+        AtomicInteger left = remaining.get(scheduleId);
+        if (left == null) return;
+        left.incrementAndGet();
+        releases.incrementAndGet();
+    }
+
+    /**
+     * Starts tracking a schedule, e.g. one just inserted or one created by another process.
+     */
+    void track(int scheduleId, int available) {
+        remaining.putIfAbsent(scheduleId, new AtomicInteger(Math.max(0, available)));
+    }
+
+    /**
+     * Seats left in a schedule, or -1 if it is not tracked.
+     */
+    int available(int scheduleId) {
+        AtomicInteger left = remaining.get(scheduleId);
+        return left == null ? -1 : Math.max(0, left.get());
+    }
+
+    /**
+     * The database found the schedule full although a seat was reserved here; {@code available}
+     * is capacity - booked as read from {@code schedules} after that transaction ended. Read
+     * afterwards, it already counts a cancellation whose release may still be on its way, so the
+     * counter can end one seat high but never at 0 while Derby has a seat free.
+     */
+    void correct(int scheduleId, int available) {
+        AtomicInteger left = remaining.get(scheduleId);
+        if (left != null) left.set(Math.max(0, available));
+        corrections.incrementAndGet();
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("schedules", remaining.size());
+        m.put("reservations", reservations.get());
+        m.put("rejectedFull", rejectedFull.get());
+        m.put("releases", releases.get());
+        m.put("corrections", corrections.get());
+        return m;
+    }
+}
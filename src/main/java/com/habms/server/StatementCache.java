@@ -0,0 +1,175 @@
+package com.habms.server;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of prepared statements belonging to one physical connection, keyed by SQL text.
+ * Callers receive a proxy whose {@code close()} only returns the statement to the cache, so
+ * repeated queries skip Derby's compile step. Settings a borrower changes (fetch size, max rows,
+ * query timeout and the like) are put back on release, or the statement is dropped from the cache
+ * if they cannot be. The cache is only touched by the thread that currently borrows the connection.
+ */
+class StatementCache {
+    interface Preparer {
+        PreparedStatement prepare() throws SQLException;
+    }
+
+    private final LinkedHashMap<String, CachedStatement> entries;
+    // evicted while the borrower still had them open; closed on release
+    private final List<CachedStatement> retired = new ArrayList<>();
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    StatementCache(int capacity, AtomicLong hits, AtomicLong misses, AtomicLong evictions) {
+        this.hits = hits;
+        this.misses = misses;
+        this.entries = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= capacity) return false;
+                evictions.incrementAndGet();
+                CachedStatement cs = eldest.getValue();
+                cs.evicted = true;
+                if (cs.inUse) retired.add(cs);
+                else cs.closePhysical();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached statement for {@code key}, preparing it on a miss.
+     * Returns null if the cached statement is still open in the caller's own code,
+     * in which case the caller should prepare an uncached statement.
+     */
+    PreparedStatement borrow(String key, Preparer preparer) throws SQLException {
+        CachedStatement cs = entries.get(key);
+        if (cs != null && cs.evicted) {
+            // failed to reset on its last release, or had a setting changed that cannot be put back;
+            // already closed
+            entries.remove(key);
+            cs = null;
+        }
+        if (cs != null) {
+            if (cs.inUse) return null;
+            hits.incrementAndGet();
+            cs.inUse = true;
+            return cs.proxy;
+        }
+        misses.incrementAndGet();
+        cs = new CachedStatement(preparer.prepare());
+        cs.inUse = true;
+        entries.put(key, cs);
+        return cs.proxy;
+    }
+
+    /**
+     * Hands every statement back to the cache; called when the connection returns to the pool.
+     */
+    void releaseAll() {
+        for (CachedStatement cs : entries.values()) {
+            if (cs.inUse) cs.release();
+        }
+        for (CachedStatement cs : retired) {
+            if (cs.inUse) cs.release();
+        }
+        retired.clear();
+    }
+
+    void close() {
+        for (CachedStatement cs : entries.values()) cs.closePhysical();
+        for (CachedStatement cs : retired) cs.closePhysical();
+        entries.clear();
+        retired.clear();
+    }
+
+    private static final class CachedStatement implements InvocationHandler {
+        // restored on release to the values read before the first of them is called
+        private static final Set<String> RESTORED = Set.of("setFetchSize", "setFetchDirection", "setMaxRows",
+                "setLargeMaxRows", "setMaxFieldSize", "setQueryTimeout");
+        // cannot be put back (escape processing and cursor name have no getter, closeOnCompletion no
+        // way to turn it off); the statement is closed on release instead of cached again
+        private static final Set<String> NOT_RESTORED = Set.of("setEscapeProcessing", "setCursorName", "closeOnCompletion");
+
+        final PreparedStatement physical;
+        final PreparedStatement proxy;
+        boolean inUse = false;
+        boolean evicted = false;
+        private ResultSet lastResult;
+        // fetch size, fetch direction, max rows, max field size and query timeout; null while unchanged
+        private int[] defaults;
+
+        CachedStatement(PreparedStatement physical) {
+            this.physical = physical;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (inUse) release();
+                    return null;
+                case "isClosed":
+                    return !inUse;
+                case "equals":
+                    return p == args[0];
+                case "hashCode":
+                    return System.identityHashCode(p);
+                case "toString":
+                    return "Cached[" + physical + "]";
+                default:
+                    if (!inUse) throw new SQLException("Statement 已关闭");
+                    if (RESTORED.contains(method.getName()) && defaults == null) {
+                        defaults = new int[]{physical.getFetchSize(), physical.getFetchDirection(), physical.getMaxRows(),
+                                physical.getMaxFieldSize(), physical.getQueryTimeout()};
+                    } else if (NOT_RESTORED.contains(method.getName())) evicted = true;
+            }
+            Object result;
+            try {
+                result = method.invoke(physical, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+            if (result instanceof ResultSet) lastResult = (ResultSet) result;
+            return result;
+        }
+
+        void release() {
+            inUse = false;
+            try {
+                if (lastResult != null) lastResult.close();
+                physical.clearParameters();
+                physical.clearBatch();
+                if (defaults != null && !evicted) {
+                    physical.setFetchSize(defaults[0]);
+                    physical.setFetchDirection(defaults[1]);
+                    physical.setMaxRows(defaults[2]);
+                    physical.setMaxFieldSize(defaults[3]);
+                    physical.setQueryTimeout(defaults[4]);
+                }
+                defaults = null;
+            } catch (SQLException ex) {
+                evicted = true;
+            }
+            lastResult = null;
+            if (evicted) closePhysical();
+        }
+
+        void closePhysical() {
+            try { physical.close(); } catch (SQLException ignored) {}
+        }
+    }
+}
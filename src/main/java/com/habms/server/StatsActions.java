@@ -0,0 +1,101 @@
+package com.habms.server;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Appointment statistics served from the rollups, and their maintenance.
+ */
+final class StatsActions {
+    private StatsActions() {}
+
+    /**
+     * Appointment counts per hour or day in [from, to), in total and per department, with a
+     * bucket for every hour or day of the range. Counts are by appointment time, net of
+     * cancellations.
+     */
+    static void timeseries(Requests.StatsTimeseries req, Exchange ex) throws SQLException {
+        if (!ex.requireAdmin()) return;
+        String granularity = req.granularity == null ? "day" : req.granularity;
+        if (!granularity.equals("hour") && !granularity.equals("day")) {
+            ex.error("granularity 应为 hour 或 day");
+            return;
+        }
+        if (req.from == null || req.to == null) {
+            ex.error("缺少 from 或 to");
+            return;
+        }
+        LocalDateTime from, to;
+        try {
+            from = LocalDateTime.parse(req.from, Exchange.TIME);
+            to = LocalDateTime.parse(req.to, Exchange.TIME);
+        } catch (DateTimeParseException e) {
+            ex.error("时间格式应为 yyyy-MM-ddTHH:mm");
+            return;
+        }
+        boolean daily = granularity.equals("day");
+        ChronoUnit unit = daily ? ChronoUnit.DAYS : ChronoUnit.HOURS;
+        from = from.truncatedTo(unit);
+        to = to.truncatedTo(unit).equals(to) ? to : to.truncatedTo(unit).plus(1, unit);
+        if (!to.isAfter(from)) {
+            ex.error("时间范围无效");
+            return;
+        }
+        if (ChronoUnit.HOURS.between(from, to) > ServerConfig.STATS_MAX_HOURS) {
+            ex.error("时间范围过大，最多 " + ServerConfig.STATS_MAX_HOURS + " 小时");
+            return;
+        }
+        Map<LocalDateTime, Map<String, Integer>> buckets = new LinkedHashMap<>();
+        Database.getAppointmentsByDeptPerHour(from, to).forEach((hour, depts) -> {
+            Map<String, Integer> b = buckets.computeIfAbsent(daily ? hour.truncatedTo(ChronoUnit.DAYS) : hour, k -> new TreeMap<>());
+            depts.forEach((dept, n) -> {
+                if (req.dept == null || req.dept.equals(dept)) b.merge(dept, n, Integer::sum);
+            });
+        });
+        List<Map<String, Object>> data = new ArrayList<>();
+        buckets.forEach((start, depts) -> {
+            Map<String, Object> b = new LinkedHashMap<>();
+            b.put("bucket", start.format(Exchange.TIME));
+            b.put("total", depts.values().stream().mapToInt(Integer::intValue).sum());
+            b.put("depts", depts);
+            data.add(b);
+        });
+        ex.ok();
+        ex.put("granularity", granularity);
+        ex.put("from", from.format(Exchange.TIME));
+        ex.put("to", to.format(Exchange.TIME));
+        ex.put("data", data);
+    }
+
+    /**
+     * Recounts the rollups from the appointments and reports the buckets that disagree; with
+     * {@code repair} they are rewritten.
+     */
+    static void verifyRollups(Requests.VerifyRollups req, Exchange ex) throws SQLException {
+        if (!ex.requireAdmin()) return;
+        ApptRollup.Report report = Database.verifyRollups(req.repair);
+        List<Map<String, Object>> samples = new ArrayList<>();
+        for (ApptRollup.Mismatch m : report.samples) {
+            Map<String, Object> s = new LinkedHashMap<>();
+            s.put("doctorId", m.doctorId);
+            s.put("bucket", Timestamp.valueOf(m.bucket).toString());
+            s.put("expected", m.expected);
+            s.put("actual", m.actual);
+            samples.add(s);
+        }
+        ex.ok();
+        ex.put("buckets", report.buckets);
+        ex.put("tableMismatches", report.tableMismatches);
+        ex.put("memoryMismatches", report.memoryMismatches);
+        ex.put("repaired", report.repaired);
+        ex.put("samples", samples);
+    }
+}
@@ -0,0 +1,157 @@
+package com.habms.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Reads the rows of one sheet of an Excel file as cell strings. .xlsx files are parsed with
+ * POI's streaming SAX reader, so a sheet of any length is read with flat memory; legacy .xls
+ * files (at most 65536 rows) go through the regular workbook model. The header row is skipped.
+ * Any file that is not a readable workbook fails with an IOException.
+ */
+final class WorkbookRows {
+    /**
+     * Receives the cells of one row, indexed by column; missing cells are null.
+     */
+    interface RowHandler {
+        void row(int rowNum, List<String> cells) throws SQLException;
+    }
+
+    // carries a handler's SQLException through the SAX parser
+    private static final class HandlerFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        HandlerFailure(SQLException cause) { super(cause); }
+    }
+
+    private WorkbookRows() {}
+
+    /**
+     * Reads the sheet named {@code sheetName} (ignoring case); does nothing if there is none.
+     */
+    static void read(Path file, String sheetName, RowHandler handler) throws IOException, SQLException {
+        File f = file.toFile();
+        if (FileMagic.valueOf(f) == FileMagic.OLE2) {
+            readWorkbook(f, sheetName, handler);
+            return;
+        }
+        try (OPCPackage pkg = OPCPackage.open(f, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                try (InputStream in = sheets.next()) {
+                    if (!sheetName.equalsIgnoreCase(sheets.getSheetName())) continue;
+                    XMLReader parser = XMLHelper.newXMLReader();
+                    parser.setContentHandler(new XSSFSheetXMLHandler(reader.getStylesTable(), null, strings, new Rows(handler), new DataFormatter(), false));
+                    parser.parse(new InputSource(in));
+                }
+            }
+        } catch (HandlerFailure ex) {
+            throw (SQLException) ex.getCause();
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException | RuntimeException ex) {
+            // POI reports files it cannot read with a variety of runtime exceptions
+            throw new IOException("无法读取 Excel 文件: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static final class Rows implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final RowHandler handler;
+        private final List<String> cells = new ArrayList<>();
+        private int nextColumn;
+
+        Rows(RowHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            cells.clear();
+            nextColumn = 0;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (rowNum == 0) return;
+            try {
+                handler.row(rowNum, cells);
+            } catch (SQLException ex) {
+                throw new HandlerFailure(ex);
+            }
+        }
+
+        @Override
+        public void cell(String ref, String value, XSSFComment comment) {
+            int col = ref == null ? nextColumn : new CellReference(ref).getCol();
+            while (cells.size() < col) cells.add(null);
+            cells.add(value);
+            nextColumn = col + 1;
+        }
+    }
+
+    private static void readWorkbook(File f, String sheetName, RowHandler handler) throws IOException, SQLException {
+        try (Workbook wb = WorkbookFactory.create(f, null, true)) {
+            for (int si = 0; si < wb.getNumberOfSheets(); si++) {
+                Sheet sheet = wb.getSheetAt(si);
+                if (!sheetName.equalsIgnoreCase(sheet.getSheetName())) continue;
+                List<String> cells = new ArrayList<>();
+                for (int r = 1; r <= sheet.getLastRowNum(); r++) {
+                    Row row = sheet.getRow(r);
+                    if (row == null) continue;
+                    cells.clear();
+                    for (int c = 0; c < row.getLastCellNum(); c++) cells.add(getCellString(row, c));
+                    handler.row(r, cells);
+                }
+            }
+        } catch (RuntimeException ex) {
+            throw new IOException("无法读取 Excel 文件: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static String getCellString(Row row, int idx) {
+        if (row == null) return null;
+        Cell c = row.getCell(idx);
+        if (c == null) return null;
+        try {
+            if (c.getCellType() == CellType.STRING) return c.getStringCellValue();
+            if (c.getCellType() == CellType.NUMERIC) {
+                double d = c.getNumericCellValue();
+                long lv = (long) d;
+                if (Math.abs(d - lv) < 0.00001) return String.valueOf(lv);
+                return String.valueOf(d);
+            }
+            if (c.getCellType() == CellType.BOOLEAN) return String.valueOf(c.getBooleanCellValue());
+            if (c.getCellType() == CellType.FORMULA) {
+                try { return c.getStringCellValue(); } catch (Exception ex) { return String.valueOf(c.getNumericCellValue()); }
+            }
+        } catch (Exception ex) { return null; }
+        return null;
+    }
+}
@@ -0,0 +1,71 @@
+package com.habms.tools;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.habms.server.ActionRegistry;
+import com.habms.server.Requests;
+
+import java.util.Map;
+
+/**
+ * Measures the per-request cost of turning a request line into a dispatched action, comparing
+ * the former generic Map parse plus string switch and field casts with
+ * {@link ActionRegistry#parse(String)} plus the class-keyed table lookup. No database is
+ * touched; only parsing and routing are timed.
+ *
+ * Usage: DispatchBenchmark [iterations, default 500000] [rounds, default 5]
+ */
+public class DispatchBenchmark {
+    private static final String[] LINES = {
+            "{\"action\":\"login\",\"username\":\"alice\",\"password\":\"secret\"}",
+            "{\"action\":\"book\",\"doctorId\":12,\"patientName\":\"张三\",\"time\":\"2030-01-01T10:00\"}",
+            "{\"action\":\"list_appts\",\"doctorId\":12,\"limit\":100,\"after\":\"MjAzMC0wMS0wMVQxMDowMHwxMg\"}",
+            "{\"action\":\"search\",\"q\":\"内科\",\"limit\":20}",
+            "{\"action\":\"add_schedule\",\"doctorId\":3,\"start\":\"2030-01-01T09:00\",\"end\":\"2030-01-01T12:00\",\"note\":\"\",\"capacity\":5}",
+            "{\"action\":\"cancel\",\"apptId\":42}",
+            "{\"action\":\"list_doctors\"}",
+    };
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    // keeps the JIT from discarding the parsed results
+    private static volatile long blackhole;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        for (int i = 0; i < 50_000; i++) { legacy(LINES[i % LINES.length]); typed(LINES[i % LINES.length]); }
+        System.out.println("round | map + switch (ns/req) | typed + table (ns/req)");
+        for (int r = 1; r <= rounds; r++) {
+            long sink = 0;
+            long t0 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) sink += legacy(LINES[i % LINES.length]);
+            long legacy = System.nanoTime() - t0;
+            t0 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) sink += typed(LINES[i % LINES.length]);
+            long typed = System.nanoTime() - t0;
+            System.out.printf("%5d | %21.0f | %22.0f%n", r, (double) legacy / iterations, (double) typed / iterations);
+            blackhole += sink;
+        }
+    }
+
+    // what the former switch did before reaching Database: generic parse, then route and cast by hand
+    @SuppressWarnings("unchecked")
+    private static int legacy(String line) throws Exception {
+        Map<String, Object> req = mapper.readValue(line, Map.class);
+        String action = (String) req.get("action");
+        switch (action) {
+            case "login": return ((String) req.get("username")).length() + ((String) req.get("password")).length();
+            case "book": return ((Number) req.get("doctorId")).intValue() + ((String) req.get("time")).length();
+            case "list_appts": return ((Number) req.get("doctorId")).intValue() + ((Number) req.get("limit")).intValue();
+            case "search": return ((String) req.get("q")).length();
+            case "add_schedule": return ((Number) req.get("doctorId")).intValue() + ((Number) req.get("capacity")).intValue();
+            case "cancel": return ((Number) req.get("apptId")).intValue();
+            case "list_doctors": return 1;
+            default: return 0;
+        }
+    }
+
+    private static int typed(String line) throws Exception {
+        Requests.Request req = ActionRegistry.parse(line);
+        return ActionRegistry.actionName(req).length();
+    }
+}
@@ -0,0 +1,80 @@
+package com.habms.tools;
+
+import com.habms.server.Database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Measures list_schedules latency against the number of schedules per doctor, comparing
+ * {@link Database#getSchedulesList(int)} (schedule index plus slot inventory) with the former
+ * one-COUNT-per-row approach. Runs on an in-memory Derby database.
+ *
+ * Usage: ScheduleListBenchmark [sizes, default 10,100,500,2000] [iterations, default 20]
+ */
+public class ScheduleListBenchmark {
+    private static final String URL = "jdbc:derby:memory:habmsbench;create=true";
+
+    public static void main(String[] args) throws Exception {
+        String sizesArg = args.length > 0 ? args[0] : "10,100,500,2000";
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        System.setProperty("habms.db.url", URL);
+        Database.init();
+        try {
+            System.out.println("schedules | index (ms) | N+1 queries (ms)");
+            for (String part : sizesArg.split(",")) {
+                int n = Integer.parseInt(part.trim());
+                int doctorId = prepareDoctor(n);
+                for (int i = 0; i < 3; i++) { Database.getSchedulesList(doctorId); legacyList(doctorId); }
+                long t0 = System.nanoTime();
+                for (int i = 0; i < iterations; i++) Database.getSchedulesList(doctorId);
+                long single = System.nanoTime() - t0;
+                t0 = System.nanoTime();
+                for (int i = 0; i < iterations; i++) legacyList(doctorId);
+                long legacy = System.nanoTime() - t0;
+                System.out.printf("%9d | %10.2f | %16.2f%n", n, single / 1e6 / iterations, legacy / 1e6 / iterations);
+            }
+        } finally {
+            Database.shutdown();
+        }
+    }
+
+    // one doctor with n one-hour schedules of capacity 2, every other schedule holding one appointment
+    private static int prepareDoctor(int n) throws Exception {
+        String name = "bench-" + n;
+        Database.addDoctor(name, "bench", "");
+        int doctorId = Database.findDoctorIdByName(name);
+        LocalDateTime t = LocalDateTime.of(2030, 1, 1, 0, 0);
+        for (int i = 0; i < n; i++) {
+            LocalDateTime start = t.plusHours(i);
+            Database.addSchedule(doctorId, start, start.plusHours(1), "", 2);
+            if (i % 2 == 0) Database.bookAppointment(doctorId, "bench", "bench", start.plusMinutes(10));
+        }
+        return doctorId;
+    }
+
+    private static int legacyList(int doctorId) throws Exception {
+        int rows = 0;
+        try (Connection conn = DriverManager.getConnection(URL)) {
+            PreparedStatement ps = conn.prepareStatement("SELECT id,start_time,end_time,note,capacity FROM schedules WHERE doctor_id=? ORDER BY start_time");
+            ps.setInt(1, doctorId);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                Timestamp start = rs.getTimestamp("start_time");
+                Timestamp end = rs.getTimestamp("end_time");
+                PreparedStatement pc = conn.prepareStatement("SELECT COUNT(*) FROM appointments WHERE doctor_id=? AND appt_time>=? AND appt_time<?");
+                pc.setInt(1, doctorId);
+                pc.setTimestamp(2, start);
+                pc.setTimestamp(3, end);
+                ResultSet rc = pc.executeQuery(); rc.next();
+                rows += rc.getInt(1) >= 0 ? 1 : 0;
+                pc.close();
+            }
+        }
+        return rows;
+    }
+}
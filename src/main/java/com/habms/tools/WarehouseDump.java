@@ -0,0 +1,49 @@
+package com.habms.tools;
+
+import com.habms.client.ClientController;
+import com.habms.client.ClientService;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * Nightly data warehouse feed: fetches the export_dump files into a directory. The nextSince of
+ * each run is kept in {@code <dir>/next-since.txt} and used by the next run, so only the first
+ * run is a full dump.
+ *
+ * Usage: WarehouseDump <dir> [csv|ndjson, default csv] [host, default 127.0.0.1] [port, default 9090]
+ * Admin credentials come from -Dhabms.user / -Dhabms.password (default admin/admin).
+ */
+public class WarehouseDump {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("用法: WarehouseDump <目录> [csv|ndjson] [host] [port]");
+            System.exit(2);
+        }
+        Path dir = Paths.get(args[0]);
+        String format = args.length > 1 ? args[1] : "csv";
+        String host = args.length > 2 ? args[2] : "127.0.0.1";
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 9090;
+        Files.createDirectories(dir);
+        Path state = dir.resolve("next-since.txt");
+        String since = Files.exists(state) ? Files.readString(state, StandardCharsets.UTF_8).trim() : null;
+
+        ClientService service = new ClientService(host, port);
+        try {
+            ClientController c = new ClientController(service);
+            Map<String, Object> login = c.login(System.getProperty("habms.user", "admin"), System.getProperty("habms.password", "admin"));
+            if (!"OK".equals(login.get("status"))) throw new IllegalStateException("登录失败: " + login.get("message"));
+            long t0 = System.nanoTime();
+            Map<String, Object> resp = c.exportDump(dir, format, since);
+            if (!"OK".equals(resp.get("status"))) throw new IllegalStateException("导出失败: " + resp.get("message"));
+            Files.writeString(state, String.valueOf(resp.get("nextSince")), StandardCharsets.UTF_8);
+            System.out.printf("%s导出完成 %dms, 行数 %s, 文件 %s%n", since == null ? "全量" : "增量(" + since + ") ",
+                    (System.nanoTime() - t0) / 1_000_000, resp.get("rows"), resp.get("files"));
+        } finally {
+            service.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.habms.server;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExchangeTest {
+    private final List<byte[]> chunks = new ArrayList<>();
+    private final ResponseStream out = new ResponseStream(chunk -> {
+        byte[] b = new byte[chunk.remaining()];
+        chunk.get(b);
+        chunks.add(b);
+    });
+    private final Exchange ex = new Exchange(new Session(), null, out);
+
+    @Test
+    void replyAndNewlineLeaveAsOneChunk() throws IOException {
+        ex.ok();
+        ex.put("id", 7);
+        ex.finish();
+        out.flush();
+        assertEquals(1, chunks.size());
+        assertEquals("{\"id\":7,\"status\":\"OK\"}\n", sent());
+    }
+
+    @Test
+    void listingLeavesAsOneChunk() throws Exception {
+        ex.list(sink -> {
+            sink.accept(Map.of("a", "b"));
+            return "next";
+        });
+        out.flush();
+        assertEquals(1, chunks.size());
+        assertEquals("{\"status\":\"OK\",\"data\":[{\"a\":\"b\"}],\"nextCursor\":\"next\"}\n", sent());
+    }
+
+    @Test
+    void failureBeforeTheFirstChunkSendsNothing() {
+        assertThrows(SQLException.class, () -> ex.list(sink -> {
+            sink.accept(Map.of("a", "b"));
+            throw new SQLException("probe");
+        }));
+        assertFalse(out.isCommitted());
+        assertTrue(chunks.isEmpty());
+        // so the handler can still replace it by an error reply
+        out.reset();
+    }
+
+    @Test
+    void failureAfterAChunkLeavesTheLineOpen() throws IOException {
+        String value = "x".repeat(100);
+        assertThrows(SQLException.class, () -> ex.list(sink -> {
+            for (int i = 0; i < 1000; i++) sink.accept(Map.of("v", value));
+            throw new SQLException("probe");
+        }));
+        assertTrue(out.isCommitted());
+        out.flush();
+        String sent = sent();
+        assertFalse(sent.endsWith("\n"));
+        assertThrows(JsonProcessingException.class, () -> new ObjectMapper().readValue(sent, Map.class));
+    }
+
+    private String sent() {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        for (byte[] c : chunks) all.writeBytes(c);
+        return new String(all.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
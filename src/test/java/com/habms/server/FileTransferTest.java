@@ -0,0 +1,206 @@
+package com.habms.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileTransferTest {
+    private static final String UPLOAD_LINE = "{\"action\":\"import_doctors_xls\",\"attachment\":%d}\n";
+    private static final String NEXT_LINE = "{\"action\":\"list_doctors\"}\n";
+
+    // the tests never open a socket; the context only frames what it is fed
+    private final ChannelContext ctx = new ChannelContext(null);
+    private final List<FileTransfer.Upload> uploads = new ArrayList<>();
+
+    @AfterEach
+    void deleteUploads() {
+        for (FileTransfer.Upload u : uploads) u.delete();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 3, 7, 64, 4096, Integer.MAX_VALUE})
+    void uploadSurvivesAnySplit(int readSize) throws IOException {
+        // several frames, so headers and payloads straddle reads of every size tried
+        byte[] file = randomBytes(FileTransfer.CHUNK_BYTES * 2 + 123);
+        byte[] wire = concat(String.format(UPLOAD_LINE, file.length).getBytes(StandardCharsets.UTF_8), frames(file),
+                NEXT_LINE.getBytes(StandardCharsets.UTF_8));
+        assertTrue(feed(wire, readSize));
+
+        ChannelContext.Incoming in = take();
+        assertTrue(in.ready());
+        assertNull(in.upload.error());
+        assertEquals(file.length, in.upload.size());
+        assertArrayEquals(file, Files.readAllBytes(in.upload.file()));
+        ctx.finished();
+        assertEquals(NEXT_LINE.trim(), take().line);
+    }
+
+    @Test
+    void requestWaitsForItsUpload() {
+        byte[] file = randomBytes(100);
+        byte[] wire = concat(String.format(UPLOAD_LINE, file.length).getBytes(StandardCharsets.UTF_8), frames(file));
+        // everything but the terminator
+        assertTrue(feed(Arrays.copyOf(wire, wire.length - 5), 16));
+        assertNull(ctx.next());
+        assertTrue(feed(Arrays.copyOfRange(wire, wire.length - 5, wire.length), 1));
+        assertNotNull(take().upload);
+    }
+
+    @Test
+    void checksumMismatchFailsTheRequestNotTheConnection() {
+        byte[] file = randomBytes(1000);
+        byte[] framed = frames(file);
+        // flip a payload byte after the header line
+        int payload = indexOf(framed, (byte) '\n') + 1;
+        framed[payload + 10] ^= 0x55;
+        byte[] wire = concat(String.format(UPLOAD_LINE, file.length).getBytes(StandardCharsets.UTF_8), framed,
+                NEXT_LINE.getBytes(StandardCharsets.UTF_8));
+        assertTrue(feed(wire, 5));
+
+        ChannelContext.Incoming in = take();
+        assertEquals("文件分块校验失败", in.upload.error());
+        ctx.finished();
+        assertEquals(NEXT_LINE.trim(), take().line);
+    }
+
+    @Test
+    void oversizeFrameClosesTheConnection() {
+        byte[] wire = concat(String.format(UPLOAD_LINE, 10).getBytes(StandardCharsets.UTF_8),
+                ("#" + (FileTransfer.MAX_FRAME_BYTES + 1) + " 0\n").getBytes(StandardCharsets.US_ASCII));
+        assertFalse(feed(wire, 3));
+        discard();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"#abc 0\n", "#10\n", "10 0\n", "#10 xyz\n", "#-1 0\n"})
+    void malformedFrameHeaderClosesTheConnection(String header) {
+        byte[] wire = concat(String.format(UPLOAD_LINE, 10).getBytes(StandardCharsets.UTF_8), header.getBytes(StandardCharsets.US_ASCII));
+        assertFalse(feed(wire, 2));
+        discard();
+    }
+
+    @Test
+    void headerWithoutNewlineIsCutOff() {
+        byte[] wire = concat(String.format(UPLOAD_LINE, 10).getBytes(StandardCharsets.UTF_8), new byte[200]);
+        assertFalse(feed(wire, 50));
+        discard();
+    }
+
+    @Test
+    void uploadCutShortAtEofIsAnswered() {
+        byte[] file = randomBytes(5000);
+        byte[] wire = concat(String.format(UPLOAD_LINE, file.length).getBytes(StandardCharsets.UTF_8), frames(file));
+        // the peer closes halfway through the payload
+        assertTrue(feed(Arrays.copyOf(wire, wire.length / 2), 1000));
+        assertNull(ctx.next());
+        ctx.markInputClosed();
+
+        ChannelContext.Incoming in = take();
+        assertTrue(in.ready());
+        assertEquals("上传未完成", in.upload.error());
+    }
+
+    @Test
+    void uploadOverTheLimitIsDiscarded() {
+        FileTransfer.Upload u = new FileTransfer.Upload(10);
+        uploads.add(u);
+        u.startFrame();
+        u.write(ByteBuffer.wrap(new byte[20]));
+        u.endFrame(0);
+        u.finish();
+        assertEquals("上传文件过大", u.error());
+    }
+
+    @Test
+    void parseHeader() {
+        assertArrayEquals(new long[]{65536, 0xdeadbeefL}, FileTransfer.parseHeader("#65536 deadbeef"));
+        assertArrayEquals(new long[]{0, 0}, FileTransfer.parseHeader("#0 0"));
+        assertNull(FileTransfer.parseHeader("#" + (FileTransfer.MAX_FRAME_BYTES + 1) + " 0"));
+        assertNull(FileTransfer.parseHeader("65536 0"));
+    }
+
+    @Test
+    void attachmentKeyMustNotBeEscaped() {
+        assertTrue(FileTransfer.announcesAttachment("{\"action\":\"x\",\"attachment\":5}"));
+        assertFalse(FileTransfer.announcesAttachment("{\"action\":\"x\",\"note\":\"\\\"attachment\\\"\"}"));
+        assertFalse(FileTransfer.announcesAttachment("{\"action\":\"list_doctors\"}"));
+        assertTrue(FileTransfer.announcesAttachment("{\"action\":\"x\", \"attachment\" : 12}"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"{\"action\":\"search\",\"q\":\"attachment\"}", "{\"q\":\"attachment\",\"limit\":5}",
+            "{\"q\":\"attachment\" , \"n\":1}", "{\"attachment\":null}", "{\"attachment\":\"5\"}"})
+    void attachmentAsAValueIsNotAnUpload(String line) {
+        assertFalse(FileTransfer.announcesAttachment(line));
+        // the request is queued as is, and the connection stays usable
+        assertTrue(feed((line + "\n" + NEXT_LINE).getBytes(StandardCharsets.UTF_8), 4));
+        ChannelContext.Incoming in = take();
+        assertEquals(line, in.line);
+        assertNull(in.upload);
+        ctx.finished();
+        assertEquals(NEXT_LINE.trim(), take().line);
+    }
+
+    private boolean feed(byte[] wire, int readSize) {
+        for (int off = 0; off < wire.length; ) {
+            int n = (int) Math.min(readSize, (long) wire.length - off);
+            if (!ctx.feed(ByteBuffer.wrap(wire, off, n))) return false;
+            off += n;
+        }
+        return true;
+    }
+
+    private ChannelContext.Incoming take() {
+        ChannelContext.Incoming in = ctx.next();
+        assertNotNull(in);
+        if (in.upload != null) uploads.add(in.upload);
+        return in;
+    }
+
+    private void discard() {
+        // the server closes the connection here; collect the aborted upload so its spool file is removed
+        ctx.markInputClosed();
+        assertNotNull(take().upload.error());
+    }
+
+    private static byte[] frames(byte[] file) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            FileTransfer.writeFrames(new ByteArrayInputStream(file), out);
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(int n) {
+        byte[] b = new byte[n];
+        new Random(n).nextBytes(b);
+        return b;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] p : parts) out.writeBytes(p);
+        return out.toByteArray();
+    }
+
+    private static int indexOf(byte[] b, byte value) {
+        for (int i = 0; i < b.length; i++) if (b[i] == value) return i;
+        return -1;
+    }
+}
@@ -0,0 +1,134 @@
+package com.habms.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageTest {
+    private static final LocalDateTime T = LocalDateTime.of(2024, 5, 1, 9, 30);
+
+    @Test
+    void cursorRoundTrip() {
+        Page.Query q = new Page.Query(null, null, Page.cursor(T, 42), 10);
+        assertEquals(T, q.afterTime);
+        assertEquals(42, q.afterId);
+        assertEquals(10, q.limit);
+    }
+
+    @Test
+    void cursorKeepsSeconds() {
+        LocalDateTime t = LocalDateTime.of(2024, 5, 1, 9, 30, 15);
+        assertEquals(t, new Page.Query(null, null, Page.cursor(t, 1), 10).afterTime);
+    }
+
+    @Test
+    void noCursorStartsAtTheBeginning() {
+        assertNull(new Page.Query(null, null, null, 10).afterTime);
+        assertNull(new Page.Query(null, null, "", 10).afterTime);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"no-separator", "2024-05-01T09:30|abc", "not-a-time|5", "|5", "2024-05-01T09:30|", "2024-05-01T09:30|99999999999"})
+    void tamperedCursorIsRejected(String key) {
+        String cursor = Base64.getUrlEncoder().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> new Page.Query(null, null, cursor, 10));
+        assertEquals("无效的分页游标", ex.getMessage());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"***", "2024-05-01T09:30|1", "a b"})
+    void nonBase64CursorIsRejected(String cursor) {
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> new Page.Query(null, null, cursor, 10));
+        assertEquals("无效的分页游标", ex.getMessage());
+    }
+
+    @Test
+    void badCursorIsAnErrorResponse() throws Exception {
+        Map<?, ?> resp = page(null, "garbage!");
+        assertEquals("ERR", resp.get("status"));
+        assertEquals("无效的分页游标", resp.get("message"));
+    }
+
+    @Test
+    void limitIsClamped() {
+        assertEquals(ServerConfig.PAGE_SIZE, query(null).limit);
+        assertEquals(1, query(0).limit);
+        assertEquals(1, query(-5).limit);
+        assertEquals(ServerConfig.PAGE_MAX, query(ServerConfig.PAGE_MAX + 1).limit);
+        assertEquals(7, query(7).limit);
+    }
+
+    @Test
+    void equalStartTimesPageInIdOrder() {
+        // legacy schedules of one doctor may share a start time; the id breaks the tie
+        ScheduleIndex index = new ScheduleIndex();
+        for (int id : new int[]{5, 3, 9, 4}) index.add(new ScheduleIndex.Slot(id, 1, T, T.plusHours(1), 1, ""));
+        index.add(new ScheduleIndex.Slot(2, 1, T.plusHours(1), T.plusHours(2), 1, ""));
+        List<Integer> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            Page.Query q = new Page.Query(null, null, cursor, 2);
+            List<ScheduleIndex.Slot> slots = index.range(1, q.from, q.to, q.afterTime, q.afterId, q.limit + 1);
+            for (int i = 0; i < slots.size() && i < q.limit; i++) seen.add(slots.get(i).id);
+            ScheduleIndex.Slot last = slots.size() > q.limit ? slots.get(q.limit - 1) : null;
+            cursor = last == null ? null : Page.cursor(last.start, last.id);
+        } while (cursor != null);
+        assertEquals(List.of(3, 4, 5, 9, 2), seen);
+    }
+
+    @Test
+    void equalAppointmentTimesPageInIdOrder() throws Exception {
+        Database.init();
+        LocalDateTime day = LocalDateTime.of(2030, 3, 4, 10, 0);
+        assertTrue(Database.addSchedule(1, day, day.plusHours(1), "", 10));
+        for (int i = 0; i < 5; i++) assertEquals(0, Database.bookAppointment(1, "tie" + i, "n", day));
+        assertEquals(0, Database.bookAppointment(1, "tie5", "n", day.plusMinutes(30)));
+        List<Integer> ids = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            Page.Query q = new Page.Query(day, day.plusHours(1), cursor, 2);
+            cursor = Database.getAppointmentsList(1, q, row -> ids.add(Integer.parseInt(row.get("id"))));
+            pages++;
+        } while (cursor != null);
+        assertEquals(6, ids.size());
+        assertEquals(3, pages);
+        for (int i = 1; i < ids.size(); i++) assertTrue(ids.get(i) > ids.get(i - 1), "ids in order without repeats: " + ids);
+    }
+
+    private static Page.Query query(Integer limit) {
+        Requests.ListAppts req = new Requests.ListAppts();
+        req.limit = limit;
+        Page.Query q = new Exchange(new Session(), null, new ResponseStream(chunk -> {})).page(req);
+        assertNotNull(q);
+        return q;
+    }
+
+    private static Map<?, ?> page(Integer limit, String after) throws Exception {
+        Requests.ListAppts req = new Requests.ListAppts();
+        req.limit = limit;
+        req.after = after;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ResponseStream out = new ResponseStream(chunk -> {
+            byte[] b = new byte[chunk.remaining()];
+            chunk.get(b);
+            bytes.write(b);
+        });
+        Exchange ex = new Exchange(new Session(), null, out);
+        assertNull(ex.page(req));
+        ex.finish();
+        out.flush();
+        return new ObjectMapper().readValue(bytes.toByteArray(), Map.class);
+    }
+}
@@ -0,0 +1,91 @@
+package com.habms.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatementCacheTest {
+    private static final String SQL = "SELECT tablename FROM sys.systables";
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private Connection conn;
+    private StatementCache cache;
+
+    @BeforeEach
+    void open() throws SQLException {
+        conn = DriverManager.getConnection(ServerConfig.DB_URL);
+        cache = new StatementCache(4, hits, misses, new AtomicLong());
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        cache.close();
+        conn.close();
+    }
+
+    @Test
+    void changedSettingsDoNotReachTheNextBorrower() throws SQLException {
+        PreparedStatement ps = borrow();
+        int all = rows(ps);
+        assertTrue(all > 1);
+        ps.setMaxRows(1);
+        ps.setFetchSize(1);
+        ps.setQueryTimeout(30);
+        assertEquals(1, rows(ps));
+        ps.close();
+
+        ps = borrow();
+        assertEquals(1, hits.get());
+        assertEquals(0, ps.getMaxRows());
+        assertEquals(0, ps.getQueryTimeout());
+        assertEquals(all, rows(ps));
+        ps.close();
+    }
+
+    @Test
+    void statementWithSettingsThatCannotBeUndoneIsNotReused() throws SQLException {
+        PreparedStatement ps = borrow();
+        ps.closeOnCompletion();
+        ps.close();
+
+        ps = borrow();
+        assertEquals(0, hits.get());
+        assertEquals(2, misses.get());
+        assertFalse(ps.isCloseOnCompletion());
+        ps.close();
+    }
+
+    @Test
+    void unchangedStatementIsReused() throws SQLException {
+        PreparedStatement ps = borrow();
+        rows(ps);
+        ps.close();
+        borrow().close();
+        assertEquals(1, hits.get());
+        assertEquals(1, misses.get());
+    }
+
+    private PreparedStatement borrow() throws SQLException {
+        PreparedStatement ps = cache.borrow(SQL, () -> conn.prepareStatement(SQL));
+        assertNotNull(ps);
+        return ps;
+    }
+
+    private static int rows(PreparedStatement ps) throws SQLException {
+        int n = 0;
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) n++;
+        }
+        return n;
+    }
+}